@@ -1,16 +1,41 @@
 package org.example;
 
+import org.example.exception.DuplicateUserException;
+import org.example.exception.UserNotFoundException;
+import org.example.exception.ValidationException;
 import org.example.menu.ExpenseMenu;
 import org.example.menu.UserMenu;
+import org.example.model.ExpenseRollup;
+import org.example.model.ImportResult;
 import org.example.model.User;
+import org.example.report.ExpenseReport;
+import org.example.report.ReportEngine;
 import org.example.repository.ExpenseRepository;
+import org.example.server.ExpenseServer;
 import org.example.service.ExpenseFileService;
 import org.example.service.UserStorageService;
+import org.example.tools.DataGenerator;
+import org.example.tools.LoadDriver;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(runCommand(args));
+        }
+
         Scanner scanner = new Scanner(System.in);
         UserStorageService userStorageService = new UserStorageService();
         ExpenseFileService expenseFileService = new ExpenseFileService();
@@ -34,4 +59,198 @@ public class Main {
             }
         }
     }
+
+    // Headless commands, for scripting without the interactive menus
+    private static int runCommand(String[] args) {
+        try {
+            switch (args[0]) {
+                case "import":
+                    if (args.length != 3) {
+                        System.err.println(usage(args[0]));
+                        return 2;
+                    }
+                    return importExpenses(args[1], Path.of(args[2]));
+                case "rebuild-rollup":
+                    if (args.length < 2) {
+                        System.err.println(usage(args[0]));
+                        return 2;
+                    }
+                    return rebuildRollups(Arrays.copyOfRange(args, 1, args.length));
+                case "report":
+                    return report(options(args, 1));
+                case "server":
+                    return runServer(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+                case "generate":
+                    if (args.length < 3) {
+                        System.err.println(usage(args[0]));
+                        return 2;
+                    }
+                    return generate(Integer.parseInt(args[1]), Integer.parseInt(args[2]), options(args, 3));
+                case "loadtest":
+                    if (args.length < 4) {
+                        System.err.println(usage(args[0]));
+                        return 2;
+                    }
+                    return loadTest(Integer.parseInt(args[1]), Double.parseDouble(args[2]),
+                            Duration.ofSeconds(Long.parseLong(args[3])), options(args, 4));
+                default:
+                    System.err.println("Unknown command: " + args[0]);
+                    return 2;
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            // Malformed numbers, dates, enum names and options
+            System.err.println("Invalid argument: " + e.getMessage());
+            System.err.println(usage(args[0]));
+            return 2;
+        }
+    }
+
+    private static String usage(String command) {
+        switch (command) {
+            case "import":
+                return "Usage: import <csvId> <file>";
+            case "rebuild-rollup":
+                return "Usage: rebuild-rollup <csvId> [<csvId>...]";
+            case "report":
+                return "Usage: report [--threads N] [--top 10]";
+            case "server":
+                return "Usage: server [port]";
+            case "generate":
+                return "Usage: generate <users> <expensesPerUser> [--prefix gen_user_] [--seed 42]"
+                        + " [--categories Food=50,Travel=20,...] [--median 40] [--spread 1.0]"
+                        + " [--from yyyy-MM-dd] [--to yyyy-MM-dd] [--dates uniform|recent]";
+            case "loadtest":
+                return "Usage: loadtest <users> <opsPerSecond> <seconds> [--prefix gen_user_] [--seed 42]"
+                        + " [--mix login=10,add=25,update=10,range=30,summary=20,export=5]";
+            default:
+                return "Unknown command: " + command;
+        }
+    }
+
+    // Spend per category per month and the top spenders, across every user's ledger
+    private static int report(Map<String, String> options) {
+        int threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int top = Integer.parseInt(options.getOrDefault("top", "10"));
+        ReportEngine engine = new ReportEngine(new UserStorageService(), new ExpenseFileService(), threads);
+
+        try {
+            long start = System.nanoTime();
+            ExpenseReport report = engine.run();
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, System.out.charset())));
+            report.print(out, top);
+            out.println(String.format("Report built in %.1f s", (System.nanoTime() - start) / 1e9));
+            out.flush();
+            return report.getFailedLedgerCount() == 0 ? 0 : 1;
+        } catch (IOException e) {
+            System.err.println("Error building report: " + e.getMessage());
+            return 2;
+        } catch (InterruptedException e) {
+            return 1;
+        }
+    }
+
+    private static int runServer(int port) {
+        ExpenseServer server = new ExpenseServer(new UserStorageService(), new ExpenseFileService());
+        try {
+            server.start(port);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            server.awaitStop();
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Error starting server: " + e.getMessage());
+            return 2;
+        } catch (InterruptedException e) {
+            return 1;
+        }
+    }
+
+    // --name value pairs following the positional arguments
+    private static Map<String, String> options(String[] args, int from) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = from; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value but got '" + args[i] + "'");
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static int generate(int users, int expensesPerUser, Map<String, String> options) {
+        DataGenerator generator = new DataGenerator(new UserStorageService(), new ExpenseFileService(),
+                Long.parseLong(options.getOrDefault("seed", "42")));
+        generator.setPrefix(options.getOrDefault("prefix", DataGenerator.DEFAULT_PREFIX));
+        if (options.containsKey("categories")) {
+            generator.setCategoryWeights(DataGenerator.parseWeights(options.get("categories")));
+        }
+        generator.setAmountDistribution(Double.parseDouble(options.getOrDefault("median", "40")),
+                Double.parseDouble(options.getOrDefault("spread", "1.0")));
+        generator.setDateRange(LocalDate.parse(options.getOrDefault("from", LocalDate.now().minusYears(2).toString())),
+                LocalDate.parse(options.getOrDefault("to", LocalDate.now().toString())),
+                DataGenerator.DateDistribution.valueOf(options.getOrDefault("dates", "uniform").toUpperCase()));
+
+        try {
+            long start = System.nanoTime();
+            long written = generator.generate(users, expensesPerUser);
+            System.out.println(String.format("Generated %d users and %d expenses in %.1f s",
+                    users, written, (System.nanoTime() - start) / 1e9));
+            return 0;
+        } catch (DuplicateUserException | ValidationException | IOException e) {
+            System.err.println("Error generating data: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    private static int loadTest(int users, double ratePerSecond, Duration duration, Map<String, String> options) {
+        ExpenseFileService expenseFileService = new ExpenseFileService();
+        LoadDriver driver = new LoadDriver(new UserStorageService(), expenseFileService,
+                options.getOrDefault("prefix", DataGenerator.DEFAULT_PREFIX), users,
+                Long.parseLong(options.getOrDefault("seed", "42")));
+        if (options.containsKey("mix")) {
+            driver.setMix(LoadDriver.parseMix(options.get("mix")));
+        }
+
+        try {
+            Duration elapsed = driver.run(ratePerSecond, duration);
+            expenseFileService.closeWriters();
+            driver.printReport(elapsed);
+            return 0;
+        } catch (InterruptedException e) {
+            return 1;
+        }
+    }
+
+    private static int importExpenses(String csvId, Path file) {
+        try {
+            User user = new UserStorageService().getUserByCsvId(csvId);
+            ExpenseRepository repository = new ExpenseRepository(new ExpenseFileService(), csvId, user.getUserId());
+            ImportResult result = repository.importCsv(file);
+
+            System.out.println("Expenses imported: " + result.getImported());
+            System.out.println("Rows rejected: " + result.getRejectedCount());
+            result.getRejections().forEach(rejection -> System.err.println(rejection));
+            return result.getRejectedCount() == 0 ? 0 : 1;
+        } catch (UserNotFoundException | IOException e) {
+            System.err.println("Error importing expenses: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    private static int rebuildRollups(String[] csvIds) {
+        UserStorageService userStorageService = new UserStorageService();
+        ExpenseFileService expenseFileService = new ExpenseFileService();
+        int status = 0;
+        for (String csvId : csvIds) {
+            try {
+                User user = userStorageService.getUserByCsvId(csvId);
+                ExpenseRollup rollup = expenseFileService.rebuildRollup(csvId, user.getUserId());
+                System.out.println("Rebuilt rollup for " + csvId + ": " + rollup.getBucketCount() + " month/category buckets");
+            } catch (UserNotFoundException | IOException e) {
+                System.err.println("Error rebuilding rollup for " + csvId + ": " + e.getMessage());
+                status = 2;
+            }
+        }
+        return status;
+    }
 }
@@ -0,0 +1,5 @@
+package org.example.interfaces;
+
+public interface ExpenseIdGenerator {
+    String nextId();
+}
@@ -6,19 +6,26 @@ import org.example.exception.ExpenseNotFoundException;
 import org.example.exception.ValidationException;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.util.List;
 import java.util.Scanner;
 
 public class ExpenseMenu {
+    private static final int PAGE_SIZE = 20;
+
     private Scanner scanner;
     private ExpenseRepository expenseRepository;
     private User currentUser;
+    // Listings are written through this and flushed once per page, not once per row
+    private final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, System.out.charset())));
 
     public ExpenseMenu(Scanner scanner, ExpenseRepository expenseRepository, User currentUser) {
         this.scanner = scanner;
@@ -36,7 +43,8 @@ public class ExpenseMenu {
             System.out.println("5. View Expenses by Duration");
             System.out.println("6. Export Expenses to File");
             System.out.println("7. View Summary");
-            System.out.println("8. Logout");
+            System.out.println("8. Import Expenses from CSV");
+            System.out.println("9. Logout");
             System.out.print("Enter your choice: ");
 
             int choice = 0;
@@ -70,6 +78,9 @@ public class ExpenseMenu {
                     handleViewSummary();
                     break;
                 case 8:
+                    handleImportFromFile();
+                    break;
+                case 9:
                     System.out.println("Logging out... Thank you for using Expense Manager!");
                     return;
                 default:
@@ -275,14 +286,53 @@ public class ExpenseMenu {
 
     private void handleViewAllExpenses() {
         System.out.println("\n--- ALL EXPENSES ---");
-        List<Expense> expenses = expenseRepository.getAllExpenses();
-
-        if (expenses.isEmpty()) {
-            System.out.println("No expenses found.");
-        } else {
-            expenses.forEach(expense -> System.out.println(expense.toFormattedString()));
-            double total = expenses.stream().mapToDouble(Expense::getAmount).sum();
-            System.out.println("\nTotal Expenses: $" + String.format("%.2f", total));
+
+        try (ExpenseCursor expenses = expenseRepository.openCursor(ExpenseQuery.all())) {
+            if (expenses.isEmpty()) {
+                System.out.println("No expenses found.");
+                return;
+            }
+            showPages(expenses);
+            out.println("\nTotal Expenses: $" + Money.format(expenses.getTotalCents()));
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Error loading expenses: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the expenses a page at a time. Enter or n moves to the next page (past the last one
+     * ends the listing), p to the previous one, and q stops.
+     */
+    private void showPages(ExpenseCursor expenses) {
+        int pages = expenses.getPageCount(PAGE_SIZE);
+        int page = 0;
+        boolean render = true;
+        while (true) {
+            if (render) {
+                for (Expense expense : expenses.page(page * PAGE_SIZE, PAGE_SIZE)) {
+                    out.println(expense.toFormattedString());
+                }
+            }
+            if (pages <= 1) {
+                out.flush();
+                return;
+            }
+            out.print("-- Page " + (page + 1) + " of " + pages + " -- [n]ext, [p]revious, [q]uit: ");
+            out.flush();
+
+            String command = scanner.nextLine().trim().toLowerCase();
+            render = true;
+            if (command.equals("q")) {
+                return;
+            } else if (command.equals("p")) {
+                page = Math.max(0, page - 1);
+            } else if (command.isEmpty() || command.equals("n")) {
+                if (++page == pages) return;
+            } else {
+                out.println("Invalid choice! Enter n, p or q.");
+                render = false;
+            }
         }
     }
 
@@ -317,17 +367,19 @@ public class ExpenseMenu {
                     return;
             }
 
-            List<Expense> expenses = expenseRepository.getExpensesByCategory(category);
-
-            if (expenses.isEmpty()) {
-                System.out.println("No expenses found for category: " + category);
-            } else {
-                expenses.forEach(expense -> System.out.println(expense.toFormattedString()));
-                double total = expenseRepository.getTotalExpensesByCategory(category);
-                System.out.println("\nTotal for " + category + ": $" + String.format("%.2f", total));
+            try (ExpenseCursor expenses = expenseRepository.openCursor(ExpenseQuery.builder().category(category).build())) {
+                if (expenses.isEmpty()) {
+                    System.out.println("No expenses found for category: " + category);
+                    return;
+                }
+                showPages(expenses);
+                out.println("\nTotal for " + category + ": $" + Money.format(expenses.getTotalCents()));
+                out.flush();
             }
         } catch (NumberFormatException e) {
             System.out.println("Invalid input! Please enter a number between 1 and 4.");
+        } catch (IOException e) {
+            System.out.println("Error loading expenses: " + e.getMessage());
         }
     }
 
@@ -352,32 +404,33 @@ public class ExpenseMenu {
                 return;
             }
 
-            List<Expense> expenses =
-                    expenseRepository.getAllExpenses().stream()
-                            .filter(e ->
-                                    !e.getDate().isBefore(startDate) &&
-                                            !e.getDate().isAfter(endDate))
-                            .toList();
-
-            if (expenses.isEmpty()) {
-                System.out.println("No expenses found between "
-                        + startDate + " and " + endDate);
-                return;
-            }
-
-            System.out.println("\nExpenses from " + startDate + " to " + endDate + ":");
-            expenses.forEach(e ->
-                    System.out.println(e.toFormattedString()));
+            ExpenseQuery query = ExpenseQuery.builder()
+                    .between(startDate, endDate)
+                    .sortBy(ExpenseQuery.Sort.DATE)
+                    .build();
+            try (ExpenseCursor expenses = expenseRepository.openCursor(query)) {
+                if (expenses.isEmpty()) {
+                    System.out.println("No expenses found between "
+                            + startDate + " and " + endDate);
+                    return;
+                }
 
-            double total = expenses.stream()
-                    .mapToDouble(Expense::getAmount)
-                    .sum();
+                out.println("\nExpenses from " + startDate + " to " + endDate + ":");
+                showPages(expenses);
 
-            System.out.println("\nSummary:");
-            System.out.println("Total Expenses: $" + String.format("%.2f", total));
+                ExpenseSummary summary = expenses.summarize();
+                out.println("\nSummary:");
+                out.println("Total Expenses: $" + Money.format(summary.getTotalCents()));
+                summary.getCategories().forEach(category ->
+                        out.printf("  %s: $%s (%.2f%%)\n",
+                                category.getCategory(), Money.format(category.getTotalCents()), summary.getPercentage(category)));
+                out.flush();
+            }
 
         } catch (DateTimeParseException e) {
             System.out.println("Invalid date format! Please use yyyy-MM-dd.");
+        } catch (IOException e) {
+            System.out.println("Error loading expenses: " + e.getMessage());
         }
     }
 
@@ -394,40 +447,82 @@ public class ExpenseMenu {
             filename = currentUser.getName() + "_expenses_" + System.currentTimeMillis();
         }
 
-        filename += ".csv";
+        System.out.print("Category to export (blank for all): ");
+        String category = scanner.nextLine().trim();
+        LocalDate startDate;
+        LocalDate endDate;
+        try {
+            System.out.print("Start date (yyyy-MM-dd, blank for none): ");
+            String startInput = scanner.nextLine().trim();
+            startDate = startInput.isEmpty() ? null : LocalDate.parse(startInput, DateTimeFormatter.ISO_LOCAL_DATE);
+            System.out.print("End date (yyyy-MM-dd, blank for none): ");
+            String endInput = scanner.nextLine().trim();
+            endDate = endInput.isEmpty() ? null : LocalDate.parse(endInput, DateTimeFormatter.ISO_LOCAL_DATE);
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date format! Please use yyyy-MM-dd.");
+            return;
+        }
+        System.out.print("Compress with gzip? (y/N): ");
+        boolean gzip = scanner.nextLine().trim().equalsIgnoreCase("y");
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            List<Expense> expenses = expenseRepository.getAllExpenses();
+        filename += gzip ? ".csv.gz" : ".csv";
 
-            if (expenses.isEmpty()) {
+        try {
+            Path target = Path.of(filename);
+            long exported = expenseRepository.exportCsv(target, category.isEmpty() ? null : category,
+                    startDate, endDate, gzip);
+
+            if (exported == 0) {
+                Files.deleteIfExists(target);
                 System.out.println("No expenses to export.");
                 return;
             }
 
-            writer.write("ExpenseID,UserID,Category,Amount,DateTime\n");
-            for (Expense expense : expenses) {
-                writer.write(expense.toCSV() + "\n");
-            }
-
             System.out.println("Expenses exported successfully to: " + filename);
-            System.out.println("Total expenses exported: " + expenses.size());
-        } catch (IOException e) {
+            if (exported > 0) {
+                System.out.println("Total expenses exported: " + exported);
+            }
+        } catch (InvalidPathException | IOException e) {
             System.out.println("Error exporting expenses: " + e.getMessage());
         }
     }
 
+    private void handleImportFromFile() {
+        System.out.println("\n--- IMPORT EXPENSES FROM CSV ---");
+        System.out.println("Rows: Category,Amount,Date (yyyy-MM-dd) or ExpenseID,UserID,Category,Amount,Date");
+        System.out.print("Enter file path: ");
+        String filename = scanner.nextLine().trim();
+
+        try {
+            ImportResult result = expenseRepository.importCsv(Path.of(filename));
+            System.out.println("Expenses imported: " + result.getImported());
+            if (result.getRejectedCount() > 0) {
+                System.out.println("Rows rejected: " + result.getRejectedCount());
+                result.getRejections().stream().limit(20).forEach(rejection -> System.out.println("  " + rejection));
+                if (result.getRejectedCount() > 20) {
+                    System.out.println("  ... and " + (result.getRejectedCount() - 20) + " more");
+                }
+            }
+        } catch (InvalidPathException | IOException e) {
+            System.out.println("Error importing expenses: " + e.getMessage());
+        }
+    }
+
     private void handleViewSummary() {
         System.out.println("\n--- EXPENSE SUMMARY ---");
-        double totalExpenses = expenseRepository.getTotalExpenses();
-        List<String> categories = expenseRepository.getAvailableCategories();
+        ExpenseSummary summary = expenseRepository.getSummary();
 
-        System.out.println("Total Expenses: $" + String.format("%.2f", totalExpenses));
+        System.out.println("Total Expenses: $" + Money.format(summary.getTotalCents()));
+        System.out.println("Number of Expenses: " + summary.getCount());
+        if (!summary.isEmpty()) {
+            System.out.println("Smallest: $" + Money.format(summary.getMinCents())
+                    + " | Largest: $" + Money.format(summary.getMaxCents()));
+        }
         System.out.println("\nBreakdown by Category:");
 
-        categories.forEach(category -> {
-            double categoryTotal = expenseRepository.getTotalExpensesByCategory(category);
-            double percentage = totalExpenses > 0 ? (categoryTotal / totalExpenses) * 100 : 0;
-            System.out.printf("  %s: $%.2f (%.2f%%)\n", category, categoryTotal, percentage);
-        });
+        summary.getCategories().forEach(category ->
+                System.out.printf("  %s: $%s (%.2f%%) | %d expense(s), min $%s, max $%s\n",
+                        category.getCategory(), Money.format(category.getTotalCents()), summary.getPercentage(category),
+                        category.getCount(), Money.format(category.getMinCents()), Money.format(category.getMaxCents())));
     }
 }
@@ -0,0 +1,68 @@
+package org.example.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Entry point of the instrumentation layer. Off unless the JVM runs with
+ * {@code -Dexpense.metrics=true}; the flag is a static final so the JIT folds every
+ * {@link OperationMetrics#start()} call site down to returning a shared no-op sample, and nothing
+ * is registered with JMX. When on, each operation gets a latency histogram, counters and byte
+ * totals, published as an MBean under {@code org.example:type=Operation}, and every sample is
+ * also a JDK Flight Recorder {@link OperationEvent}.
+ */
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("expense.metrics");
+
+    private static final String DOMAIN = "org.example";
+    private static final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private static final ParserStats parserStats = new ParserStats();
+
+    static {
+        if (ENABLED) {
+            register("type=Parser", parserStats);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * The metrics for the named operation, created (and registered with JMX) on first use.
+     * Call sites keep the result in a static field.
+     */
+    public static OperationMetrics operation(String name) {
+        return operations.computeIfAbsent(name, key -> {
+            OperationMetrics metrics = new OperationMetrics(key);
+            if (ENABLED) {
+                register("type=Operation,name=" + ObjectName.quote(key), metrics);
+            }
+            return metrics;
+        });
+    }
+
+    /**
+     * Counts ledger rows decoded from storage, for the parser's rows-per-second rate.
+     */
+    public static void rowsParsed(long rows) {
+        if (ENABLED) {
+            parserStats.add(rows);
+        }
+    }
+
+    private static void register(String properties, Object mbean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(mbean, new ObjectName(DOMAIN + ":" + properties));
+        } catch (InstanceAlreadyExistsException e) {
+            // Another class loader in this JVM got there first; its numbers are the ones shown
+        } catch (JMException e) {
+            System.err.println("Error registering metrics MBean: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One timed repository, storage or menu operation, so a recording lines slow actions up with
+ * GC pauses and file I/O on the same timeline.
+ */
+@Name("org.example.Operation")
+@Label("Expense Operation")
+@Category("Expense Manager")
+@Description("A timed expense manager operation")
+@StackTrace(false)
+class OperationEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesWritten;
+
+    @Label("Failed")
+    boolean failed;
+}
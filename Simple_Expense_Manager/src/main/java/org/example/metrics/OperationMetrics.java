@@ -0,0 +1,158 @@
+package org.example.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram, counters and byte totals for one named operation. Timed with:
+ * <pre>
+ * try (OperationMetrics.Sample sample = LOAD.start()) {
+ *     ...
+ *     sample.rows(ledger.size()).success();
+ *     return ledger;
+ * }
+ * </pre>
+ * A sample records its latency when closed and counts as an error unless {@link Sample#success()}
+ * was called, so an exception thrown out of the block or a lookup that finds nothing is an error.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public Sample start() {
+        return Metrics.ENABLED ? new Sample(this) : Sample.DISABLED;
+    }
+
+    public static final class Sample implements AutoCloseable {
+        static final Sample DISABLED = new Sample(null);
+
+        private final OperationMetrics metrics;
+        private final OperationEvent event;
+        private final long start;
+        private long rows;
+        private long bytesRead;
+        private long bytesWritten;
+        private boolean succeeded;
+
+        private Sample(OperationMetrics metrics) {
+            this.metrics = metrics;
+            if (metrics == null) {
+                event = null;
+                start = 0;
+                return;
+            }
+            event = new OperationEvent();
+            event.begin();
+            start = System.nanoTime();
+        }
+
+        public Sample rows(long count) {
+            rows += count;
+            return this;
+        }
+
+        public Sample bytesRead(long count) {
+            bytesRead += count;
+            return this;
+        }
+
+        public Sample bytesWritten(long count) {
+            bytesWritten += count;
+            return this;
+        }
+
+        public Sample success() {
+            succeeded = true;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (metrics == null) {
+                return;
+            }
+            metrics.latency.record(System.nanoTime() - start);
+            if (!succeeded) metrics.errors.increment();
+            if (rows != 0) metrics.rows.add(rows);
+            if (bytesRead != 0) metrics.bytesRead.add(bytesRead);
+            if (bytesWritten != 0) metrics.bytesWritten.add(bytesWritten);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = metrics.name;
+                event.rows = rows;
+                event.bytesRead = bytesRead;
+                event.bytesWritten = bytesWritten;
+                event.failed = !succeeded;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getRows() {
+        return rows.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMeanNanos() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getValueAtPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return latency.getValueAtPercentile(90) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latency.getValueAtPercentile(99.9) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMaxNanos() / 1e6;
+    }
+}
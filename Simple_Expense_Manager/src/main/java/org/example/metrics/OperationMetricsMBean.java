@@ -0,0 +1,30 @@
+package org.example.metrics;
+
+/**
+ * JMX view of one operation. Latencies are in milliseconds.
+ */
+public interface OperationMetricsMBean {
+    String getName();
+
+    long getCount();
+
+    long getErrors();
+
+    long getRows();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+}
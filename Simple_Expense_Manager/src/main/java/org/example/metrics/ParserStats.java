@@ -0,0 +1,28 @@
+package org.example.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+class ParserStats implements ParserStatsMBean {
+    private final LongAdder rowsParsed = new LongAdder();
+    private long lastRows;
+    private long lastNanos = System.nanoTime();
+
+    void add(long rows) {
+        rowsParsed.add(rows);
+    }
+
+    @Override
+    public long getRowsParsed() {
+        return rowsParsed.sum();
+    }
+
+    @Override
+    public synchronized double getRowsParsedPerSecond() {
+        long rows = rowsParsed.sum();
+        long now = System.nanoTime();
+        double rate = (rows - lastRows) / Math.max(1e-9, (now - lastNanos) / 1e9);
+        lastRows = rows;
+        lastNanos = now;
+        return rate;
+    }
+}
@@ -0,0 +1,13 @@
+package org.example.metrics;
+
+/**
+ * JMX view of row decoding across all ledgers.
+ */
+public interface ParserStatsMBean {
+    long getRowsParsed();
+
+    /**
+     * Rows parsed per second since the previous read of this attribute (or since startup).
+     */
+    double getRowsParsedPerSecond();
+}
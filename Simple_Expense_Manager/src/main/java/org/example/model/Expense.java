@@ -1,5 +1,6 @@
 package org.example.model;
 
+import org.example.interfaces.ExpenseIdGenerator;
 import org.example.interfaces.Exportable;
 import org.example.interfaces.Validatable;
 import org.example.exception.ValidationException;
@@ -9,10 +10,12 @@ import java.time.LocalDateTime;
 import java.util.Objects;
 
 public abstract class Expense implements Validatable, Exportable {
+    private static volatile ExpenseIdGenerator idGenerator = SnowflakeIdGenerator.fromSystemProperty();
+
     protected String expenseId;
     protected String userId;
     protected String category;
-    protected double amount;
+    protected long amountCents;
     protected LocalDate dateTime;
     protected String description;
 
@@ -20,7 +23,7 @@ public abstract class Expense implements Validatable, Exportable {
         this.expenseId = generateExpenseId();
         this.userId = userId;
         this.category = category;
-        this.amount = amount;
+        this.amountCents = Money.toCents(amount);
         this.dateTime = date;
 //        this.description = (description == null) ? "" : description;
         validate();
@@ -30,14 +33,23 @@ public abstract class Expense implements Validatable, Exportable {
         this.expenseId = expenseId;
         this.userId = userId;
         this.category = category;
-        this.amount = amount;
+        this.amountCents = Money.toCents(amount);
         this.dateTime = date;
 //        this.description = (description == null) ? "" : description;
         validate();
     }
 
+    // For subclasses rebuilding rows read back from storage: they were validated when first written
+    protected Expense() {
+        this.description = "";
+    }
+
     private String generateExpenseId() {
-        return "EXP_" + System.currentTimeMillis() + "_" + (int)(Math.random() * 1000);
+        return idGenerator.nextId();
+    }
+
+    public static void setIdGenerator(ExpenseIdGenerator generator) {
+        idGenerator = Objects.requireNonNull(generator);
     }
 
     @Override
@@ -48,10 +60,14 @@ public abstract class Expense implements Validatable, Exportable {
         if (category == null || category.trim().isEmpty()) {
             throw new ValidationException("Category cannot be empty");
         }
-        if (amount <= 0) {
+        // A comma or line break would corrupt the CSV ledger, which writes categories unquoted
+        if (category.indexOf(',') >= 0 || category.indexOf('\n') >= 0 || category.indexOf('\r') >= 0) {
+            throw new ValidationException("Category cannot contain commas or line breaks");
+        }
+        if (amountCents <= 0) {
             throw new ValidationException("Amount must be greater than 0");
         }
-        if (amount > 1000000) {
+        if (amountCents > Money.MAX_CENTS) {
             throw new ValidationException("Amount cannot exceed 1,000,000");
         }
         // Description is optional (always empty for new expenses, kept for backward compatibility)
@@ -62,15 +78,22 @@ public abstract class Expense implements Validatable, Exportable {
 
     @Override
     public String toCSV() {
-        return String.format("%s,%s,%s,%.2f,%s",
-                expenseId, userId, category, amount,
-                dateTime.toString());
+        return appendCSV(new StringBuilder(64)).toString();
+    }
+
+    /**
+     * Appends the CSV row (without a line break), for writers that reuse one builder per batch.
+     */
+    public StringBuilder appendCSV(StringBuilder target) {
+        target.append(expenseId).append(',').append(userId).append(',').append(category).append(',');
+        return Money.appendCents(target, amountCents).append(',').append(dateTime);
     }
 
     @Override
     public String toFormattedString() {
-        return String.format("Expense ID: %s | Category: %s | Amount: $%.2f | Date: %s",
-                expenseId, category, amount, dateTime.toString());
+        StringBuilder text = new StringBuilder(96);
+        text.append("Expense ID: ").append(expenseId).append(" | Category: ").append(category).append(" | Amount: $");
+        return Money.appendCents(text, amountCents).append(" | Date: ").append(dateTime).toString();
     }
 
     // Getters and Setters
@@ -87,11 +110,15 @@ public abstract class Expense implements Validatable, Exportable {
     }
 
     public double getAmount() {
-        return amount;
+        return Money.toAmount(amountCents);
+    }
+
+    public long getAmountCents() {
+        return amountCents;
     }
 
     public void setAmount(double amount) throws ValidationException {
-        this.amount = amount;
+        this.amountCents = Money.toCents(amount);
         validate();
     }
 
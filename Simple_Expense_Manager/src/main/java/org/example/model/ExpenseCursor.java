@@ -0,0 +1,107 @@
+package org.example.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Query results over a ledger, held as the matching row numbers in order plus their total, which
+ * is summed while the rows are picked. Expenses are only created for the rows read, so paging
+ * through a million matches costs one page of objects at a time. The cursor reads the ledger it
+ * was opened on and is only valid until that ledger changes; closing it lets go of the ledger.
+ */
+public class ExpenseCursor implements AutoCloseable, Iterable<Expense> {
+    private ExpenseLedger ledger;
+    private final int[] rows;
+    private final long totalCents;
+
+    ExpenseCursor(ExpenseLedger ledger, int[] rows, long totalCents) {
+        this.ledger = ledger;
+        this.rows = rows;
+        this.totalCents = totalCents;
+    }
+
+    public int size() {
+        return rows.length;
+    }
+
+    public boolean isEmpty() {
+        return rows.length == 0;
+    }
+
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    public Expense get(int position) {
+        Objects.checkIndex(position, rows.length);
+        return open().toExpense(rows[position]);
+    }
+
+    /**
+     * Up to {@code count} expenses starting at {@code offset}; empty once the offset is past the end.
+     */
+    public List<Expense> page(int offset, int count) {
+        if (offset < 0 || count < 0) {
+            throw new IllegalArgumentException("Offset and count cannot be negative");
+        }
+        ExpenseLedger ledger = open();
+        int end = (int) Math.min(rows.length, (long) offset + count);
+        List<Expense> page = new ArrayList<>(Math.max(0, end - offset));
+        for (int position = offset; position < end; position++) {
+            page.add(ledger.toExpense(rows[position]));
+        }
+        return page;
+    }
+
+    /**
+     * Aggregates the rows from the ledger's columns, without creating an Expense for each.
+     */
+    public ExpenseSummary summarize() {
+        ExpenseLedger ledger = open();
+        ExpenseSummary summary = new ExpenseSummary();
+        for (int row : rows) {
+            long cents = ledger.getAmountCents(row);
+            summary.add(ledger.getCategory(row), 1, cents, cents, cents);
+        }
+        return summary;
+    }
+
+    public int getPageCount(int pageSize) {
+        return (rows.length + pageSize - 1) / pageSize;
+    }
+
+    @Override
+    public Iterator<Expense> iterator() {
+        return new Iterator<>() {
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                return position < rows.length;
+            }
+
+            @Override
+            public Expense next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(position++);
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        ledger = null;
+    }
+
+    private ExpenseLedger open() {
+        if (ledger == null) {
+            throw new IllegalStateException("Cursor is closed");
+        }
+        return ledger;
+    }
+}
@@ -0,0 +1,109 @@
+package org.example.model;
+
+import java.util.Arrays;
+
+/**
+ * Ledger rows ordered by date, for range queries. A range is located with two binary searches
+ * and walked sequentially; range totals come from a Fenwick tree over the date-ordered amounts,
+ * so they cost O(log n) and never touch individual rows. Built and maintained by
+ * {@link ExpenseLedger#getDateIndex()}.
+ */
+public class ExpenseDateIndex {
+    private final int[] sortedDays;
+    private final int[] sortedRows;
+    private final int[] positions; // row -> position in sorted order
+    private final long[] fenwick;
+
+    ExpenseDateIndex(ExpenseLedger ledger) {
+        int size = ledger.size();
+        long[] keys = new long[size];
+        for (int row = 0; row < size; row++) {
+            // Day in the high half, row in the low half: sorts by date, then by ledger order
+            keys[row] = ((long) ledger.getEpochDay(row) << 32) | row;
+        }
+        Arrays.sort(keys);
+
+        sortedDays = new int[size];
+        sortedRows = new int[size];
+        positions = new int[size];
+        fenwick = new long[size + 1];
+        for (int position = 0; position < size; position++) {
+            int row = (int) keys[position];
+            sortedDays[position] = (int) (keys[position] >> 32);
+            sortedRows[position] = row;
+            positions[row] = position;
+            fenwick[position + 1] = ledger.getAmountCents(row);
+        }
+        for (int i = 1; i <= size; i++) {
+            int parent = i + (i & -i);
+            if (parent <= size) {
+                fenwick[parent] += fenwick[i];
+            }
+        }
+    }
+
+    public int size() {
+        return sortedRows.length;
+    }
+
+    /**
+     * First position whose date is on or after {@code epochDay}.
+     */
+    public int lowerBound(long epochDay) {
+        int low = 0;
+        int high = sortedDays.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedDays[middle] < epochDay) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * First position whose date is after {@code epochDay}.
+     */
+    public int upperBound(long epochDay) {
+        int low = 0;
+        int high = sortedDays.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedDays[middle] <= epochDay) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public int rowAt(int position) {
+        return sortedRows[position];
+    }
+
+    /**
+     * Total of every row dated between the two days, both inclusive.
+     */
+    public long totalCents(long startDay, long endDay) {
+        if (startDay > endDay) return 0;
+        return prefixSum(upperBound(endDay)) - prefixSum(lowerBound(startDay));
+    }
+
+    // Sum of the first count positions
+    private long prefixSum(int count) {
+        long sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += fenwick[i];
+        }
+        return sum;
+    }
+
+    void amountChanged(int row, long deltaCents) {
+        for (int i = positions[row] + 1; i < fenwick.length; i += i & -i) {
+            fenwick[i] += deltaCents;
+        }
+    }
+}
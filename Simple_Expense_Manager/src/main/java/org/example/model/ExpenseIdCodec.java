@@ -0,0 +1,99 @@
+package org.example.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Packs expense ids into a single long so ledgers can store them in a primitive column.
+ * Legacy ids of the form {@code EXP_<millis>_<0..999>} encode as {@code millis * 1000 + suffix}.
+ * Ids from {@link SnowflakeIdGenerator} are {@code EXP_} followed by their code in 13
+ * Crockford base32 digits, and carry {@link #GENERATED_TAG} so the two kinds never collide.
+ * Anything else is not encodable and {@link #IRREGULAR} is returned.
+ */
+public final class ExpenseIdCodec {
+    public static final long IRREGULAR = -1L;
+    public static final long GENERATED_TAG = 1L << 62;
+
+    private static final String LEGACY_PREFIX = "EXP_";
+    // Keeps legacy codes below GENERATED_TAG
+    private static final long MAX_LEGACY_MILLIS = (GENERATED_TAG - 1000) / 1000;
+    private static final int GENERATED_DIGITS = 13;
+    private static final char[] BASE32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private ExpenseIdCodec() {
+    }
+
+    public static long encode(String expenseId) {
+        byte[] bytes = expenseId.getBytes(StandardCharsets.ISO_8859_1);
+        return encode(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Encodes the id stored in {@code buffer[start, end)} without creating a String.
+     */
+    public static long encode(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (length < 7 || buffer.get(start) != 'E' || buffer.get(start + 1) != 'X'
+                || buffer.get(start + 2) != 'P' || buffer.get(start + 3) != '_') {
+            return IRREGULAR;
+        }
+
+        int separator = -1;
+        for (int i = start + 4; i < end; i++) {
+            if (buffer.get(i) == '_') {
+                separator = i;
+                break;
+            }
+        }
+        if (separator < 0) return decodeGenerated(buffer, start + 4, end);
+
+        long millis = canonicalNumber(buffer, start + 4, separator, MAX_LEGACY_MILLIS);
+        long suffix = canonicalNumber(buffer, separator + 1, end, 999);
+        if (millis < 0 || suffix < 0) return IRREGULAR;
+        return millis * 1000 + suffix;
+    }
+
+    public static String decode(long code) {
+        if ((code & GENERATED_TAG) != 0) {
+            char[] digits = new char[GENERATED_DIGITS];
+            for (int i = GENERATED_DIGITS - 1; i >= 0; i--) {
+                digits[i] = BASE32[(int) (code & 31)];
+                code >>>= 5;
+            }
+            return LEGACY_PREFIX + new String(digits);
+        }
+        return LEGACY_PREFIX + (code / 1000) + "_" + (code % 1000);
+    }
+
+    private static long decodeGenerated(ByteBuffer buffer, int start, int end) {
+        if (end - start != GENERATED_DIGITS) return IRREGULAR;
+        long code = 0;
+        for (int i = start; i < end; i++) {
+            int digit = base32Digit(buffer.get(i));
+            if (digit < 0 || (code >>> 58) != 0) return IRREGULAR;
+            code = (code << 5) | digit;
+        }
+        return code >= 0 && (code & GENERATED_TAG) != 0 ? code : IRREGULAR;
+    }
+
+    private static int base32Digit(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        for (int digit = 10; digit < BASE32.length; digit++) {
+            if (BASE32[digit] == b) return digit;
+        }
+        return -1;
+    }
+
+    // Digits without leading zeros (so decode reproduces the exact text), or -1
+    private static long canonicalNumber(ByteBuffer buffer, int start, int end, long max) {
+        if (start >= end || (buffer.get(start) == '0' && end - start > 1)) return -1;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') return -1;
+            value = value * 10 + (b - '0');
+            if (value > max) return -1;
+        }
+        return value;
+    }
+}
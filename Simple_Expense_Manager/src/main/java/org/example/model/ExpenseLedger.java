@@ -0,0 +1,335 @@
+package org.example.model;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented, primitive-backed storage for one user's expenses. Each row costs a long id
+ * code, a long amount in cents, an int epoch day and a short category id; {@link Expense}
+ * objects are only created when a row is read through {@link #toExpense(int)}.
+ */
+public class ExpenseLedger {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String userId;
+    private int size;
+    private long[] idCodes = new long[INITIAL_CAPACITY];
+    private long[] amountCents = new long[INITIAL_CAPACITY];
+    private int[] epochDays = new int[INITIAL_CAPACITY];
+    private short[] categoryIds = new short[INITIAL_CAPACITY];
+
+    // Ids that do not fit ExpenseIdCodec, keyed by row
+    private final Map<Integer, String> irregularIds = new HashMap<>();
+
+    private final List<String> categoryNames = new ArrayList<>();
+    private final Map<String, Short> categoryLookup = new HashMap<>();
+
+    // Open-addressing id code -> row index, built on first lookup and kept up to date by add()
+    private long[] indexKeys;
+    private int[] indexRows;
+    private int indexMask;
+    private Map<String, Integer> irregularIndex;
+
+    private ExpenseDateIndex dateIndex;
+
+    public ExpenseLedger(String userId) {
+        this.userId = userId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // ---------- Row access ----------
+
+    public String getExpenseId(int row) {
+        long code = idCodes[checkRow(row)];
+        return code == ExpenseIdCodec.IRREGULAR ? irregularIds.get(row) : ExpenseIdCodec.decode(code);
+    }
+
+    /**
+     * The packed id, or {@link ExpenseIdCodec#IRREGULAR} when only {@link #getExpenseId} has it.
+     */
+    public long getIdCode(int row) {
+        return idCodes[checkRow(row)];
+    }
+
+    public long getAmountCents(int row) {
+        return amountCents[checkRow(row)];
+    }
+
+    public double getAmount(int row) {
+        return getAmountCents(row) / 100.0;
+    }
+
+    public int getEpochDay(int row) {
+        return epochDays[checkRow(row)];
+    }
+
+    public LocalDate getDate(int row) {
+        return LocalDate.ofEpochDay(getEpochDay(row));
+    }
+
+    public int getCategoryId(int row) {
+        return categoryIds[checkRow(row)];
+    }
+
+    public String getCategory(int row) {
+        return categoryNames.get(getCategoryId(row));
+    }
+
+    public Expense toExpense(int row) {
+        return SimpleExpense.fromStorageCents(getExpenseId(row), userId, getCategory(row), getAmountCents(row), getDate(row));
+    }
+
+    /**
+     * A read-only view that creates each Expense when it is accessed.
+     */
+    public List<Expense> asList() {
+        return new AbstractList<>() {
+            @Override
+            public Expense get(int index) {
+                return toExpense(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public List<Expense> toExpenses() {
+        return new ArrayList<>(asList());
+    }
+
+    /**
+     * Rows ordered by date, built on first use. Amount-only updates are applied to it in place;
+     * any other change drops it until it is needed again.
+     */
+    public ExpenseDateIndex getDateIndex() {
+        if (dateIndex == null) {
+            dateIndex = new ExpenseDateIndex(this);
+        }
+        return dateIndex;
+    }
+
+    // ---------- Categories ----------
+
+    public int getCategoryCount() {
+        return categoryNames.size();
+    }
+
+    public String getCategoryName(int categoryId) {
+        return categoryNames.get(categoryId);
+    }
+
+    /**
+     * Returns the dictionary id of the category, or -1 when no row has ever used it.
+     */
+    public int getCategoryId(String category) {
+        Short id = categoryLookup.get(category);
+        return id == null ? -1 : id;
+    }
+
+    public int internCategory(String category) {
+        Short id = categoryLookup.get(category);
+        if (id == null) {
+            if (categoryNames.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct categories");
+            }
+            id = (short) categoryNames.size();
+            categoryNames.add(category);
+            categoryLookup.put(category, id);
+        }
+        return id;
+    }
+
+    // ---------- Mutation ----------
+
+    public void add(Expense expense) {
+        add(ExpenseIdCodec.encode(expense.getExpenseId()), expense.getExpenseId(),
+                internCategory(expense.getCategory()), expense.getAmountCents(),
+                (int) expense.getDate().toEpochDay());
+    }
+
+    /**
+     * Appends a row. {@code expenseId} is only consulted when {@code idCode} is
+     * {@link ExpenseIdCodec#IRREGULAR}, so callers holding an encoded id may pass null.
+     */
+    public void add(long idCode, String expenseId, int categoryId, long cents, int epochDay) {
+        if (size == idCodes.length) {
+            grow(size * 2);
+        }
+        int row = size++;
+        write(row, idCode, expenseId, categoryId, cents, epochDay);
+        if (indexKeys != null) {
+            indexPut(row);
+        }
+        dateIndex = null;
+    }
+
+    public void set(int row, Expense expense) {
+        checkRow(row);
+        long idCode = ExpenseIdCodec.encode(expense.getExpenseId());
+        boolean sameId = expense.getExpenseId().equals(getExpenseId(row));
+        long oldCents = amountCents[row];
+        int oldEpochDay = epochDays[row];
+        write(row, idCode, expense.getExpenseId(), internCategory(expense.getCategory()),
+                expense.getAmountCents(), (int) expense.getDate().toEpochDay());
+        if (!sameId) {
+            dropIndex();
+        }
+        if (dateIndex != null) {
+            if (epochDays[row] == oldEpochDay) {
+                dateIndex.amountChanged(row, amountCents[row] - oldCents);
+            } else {
+                dateIndex = null;
+            }
+        }
+    }
+
+    public void remove(int row) {
+        checkRow(row);
+        int tail = size - row - 1;
+        System.arraycopy(idCodes, row + 1, idCodes, row, tail);
+        System.arraycopy(amountCents, row + 1, amountCents, row, tail);
+        System.arraycopy(epochDays, row + 1, epochDays, row, tail);
+        System.arraycopy(categoryIds, row + 1, categoryIds, row, tail);
+        size--;
+
+        if (!irregularIds.isEmpty()) {
+            Map<Integer, String> shifted = new HashMap<>();
+            irregularIds.forEach((r, id) -> {
+                if (r < row) shifted.put(r, id);
+                else if (r > row) shifted.put(r - 1, id);
+            });
+            irregularIds.clear();
+            irregularIds.putAll(shifted);
+        }
+        dropIndex();
+        dateIndex = null;
+    }
+
+    /**
+     * Appends every row of another ledger, remapping its category ids into this dictionary.
+     */
+    public void addAll(ExpenseLedger other) {
+        int[] categoryMap = new int[other.categoryNames.size()];
+        for (int c = 0; c < categoryMap.length; c++) {
+            categoryMap[c] = internCategory(other.categoryNames.get(c));
+        }
+        if (size + other.size > idCodes.length) {
+            grow(Math.max(size + other.size, idCodes.length * 2));
+        }
+        for (int row = 0; row < other.size; row++) {
+            long code = other.idCodes[row];
+            add(code, code == ExpenseIdCodec.IRREGULAR ? other.irregularIds.get(row) : null,
+                    categoryMap[other.categoryIds[row]], other.amountCents[row], other.epochDays[row]);
+        }
+    }
+
+    private void write(int row, long idCode, String expenseId, int categoryId, long cents, int epochDay) {
+        idCodes[row] = idCode;
+        if (idCode == ExpenseIdCodec.IRREGULAR) {
+            irregularIds.put(row, expenseId);
+        } else {
+            irregularIds.remove(row);
+        }
+        categoryIds[row] = (short) categoryId;
+        amountCents[row] = cents;
+        epochDays[row] = epochDay;
+    }
+
+    private void grow(int capacity) {
+        idCodes = Arrays.copyOf(idCodes, capacity);
+        amountCents = Arrays.copyOf(amountCents, capacity);
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        categoryIds = Arrays.copyOf(categoryIds, capacity);
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of bounds for ledger of size " + size);
+        }
+        return row;
+    }
+
+    // ---------- Id lookup ----------
+
+    /**
+     * Returns the row holding the expense, or -1.
+     */
+    public int indexOf(String expenseId) {
+        if (indexKeys == null) {
+            buildIndex();
+        }
+        long code = ExpenseIdCodec.encode(expenseId);
+        if (code == ExpenseIdCodec.IRREGULAR) {
+            Integer row = irregularIndex.get(expenseId);
+            return row == null ? -1 : row;
+        }
+
+        for (int slot = mix(code) & indexMask; ; slot = (slot + 1) & indexMask) {
+            int row = indexRows[slot];
+            if (row < 0) return -1;
+            if (indexKeys[slot] == code) return row;
+        }
+    }
+
+    private void buildIndex() {
+        int capacity = Integer.highestOneBit(Math.max(INITIAL_CAPACITY, size * 2 - 1)) << 1;
+        indexKeys = new long[capacity];
+        indexRows = new int[capacity];
+        Arrays.fill(indexRows, -1);
+        indexMask = capacity - 1;
+        irregularIndex = new HashMap<>();
+        for (int row = 0; row < size; row++) {
+            indexPut(row);
+        }
+    }
+
+    private void indexPut(int row) {
+        long code = idCodes[row];
+        if (code == ExpenseIdCodec.IRREGULAR) {
+            irregularIndex.putIfAbsent(irregularIds.get(row), row);
+            return;
+        }
+        if (size * 2 > indexKeys.length) {
+            // buildIndex re-inserts every row, including this one
+            buildIndex();
+            return;
+        }
+        int slot = mix(code) & indexMask;
+        while (indexRows[slot] >= 0) {
+            if (indexKeys[slot] == code) return; // keep the first row with a duplicated id
+            slot = (slot + 1) & indexMask;
+        }
+        indexKeys[slot] = code;
+        indexRows[slot] = row;
+    }
+
+    private void dropIndex() {
+        indexKeys = null;
+        indexRows = null;
+        irregularIndex = null;
+    }
+
+    private static int mix(long code) {
+        long h = code * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
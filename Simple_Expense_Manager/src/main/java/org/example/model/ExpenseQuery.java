@@ -0,0 +1,317 @@
+package org.example.model;
+
+import org.example.exception.ValidationException;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Filter, order and limit for reading expenses: any of a set of categories (ignoring case), a date
+ * range and an amount range, each bound inclusive and open when left unset. Built with
+ * {@link #builder()}; a query can be answered from a loaded ledger with {@link #select} and
+ * {@link #summarize}, or pushed down into a scan of the ledger file, where rows it rejects are
+ * skipped before they are fully parsed.
+ */
+public final class ExpenseQuery {
+    public enum Sort {
+        /** Whatever order is cheapest: ledger order, or date order when the dates narrow the rows. */
+        NONE,
+        DATE,
+        DATE_DESCENDING,
+        AMOUNT,
+        AMOUNT_DESCENDING
+    }
+
+    private static final ExpenseQuery ALL = builder().build();
+
+    private final Set<String> categories;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+    private final long minCents;
+    private final long maxCents;
+    private final Sort sort;
+    private final int limit;
+
+    private ExpenseQuery(Builder builder) {
+        TreeSet<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        names.addAll(builder.categories);
+        this.categories = Collections.unmodifiableSet(names);
+        this.startDate = builder.startDate;
+        this.endDate = builder.endDate;
+        this.minCents = builder.minCents;
+        this.maxCents = builder.maxCents;
+        this.sort = builder.sort;
+        this.limit = builder.limit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static ExpenseQuery all() {
+        return ALL;
+    }
+
+    public Set<String> getCategories() {
+        return categories;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    public long getMinCents() {
+        return minCents;
+    }
+
+    public long getMaxCents() {
+        return maxCents;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean hasCategories() {
+        return !categories.isEmpty();
+    }
+
+    public boolean hasDateRange() {
+        return startDate != null || endDate != null;
+    }
+
+    public boolean hasAmountRange() {
+        return minCents != Long.MIN_VALUE || maxCents != Long.MAX_VALUE;
+    }
+
+    public long getStartDay() {
+        return startDate == null ? Long.MIN_VALUE : startDate.toEpochDay();
+    }
+
+    public long getEndDay() {
+        return endDate == null ? Long.MAX_VALUE : endDate.toEpochDay();
+    }
+
+    public boolean matchesCategory(String category) {
+        return categories.isEmpty() || categories.contains(category);
+    }
+
+    public boolean matchesDay(long epochDay) {
+        return epochDay >= getStartDay() && epochDay <= getEndDay();
+    }
+
+    public boolean matchesCents(long cents) {
+        return cents >= minCents && cents <= maxCents;
+    }
+
+    public boolean matches(Expense expense) {
+        return matchesCategory(expense.getCategory()) && matchesDay(expense.getDate().toEpochDay())
+                && matchesCents(expense.getAmountCents());
+    }
+
+    /**
+     * Whether whole (month, category) buckets answer the query's aggregates, as an
+     * {@link ExpenseRollup} keeps them: no amount range, and dates that start on the first of a
+     * month and end on the last of one.
+     */
+    public boolean coversWholeMonths() {
+        return !hasAmountRange()
+                && (startDate == null || startDate.getDayOfMonth() == 1)
+                && (endDate == null || endDate.getDayOfMonth() == endDate.lengthOfMonth())
+                && (startDate == null || endDate == null || !startDate.isAfter(endDate));
+    }
+
+    /**
+     * The same filters with no sort or limit, as aggregates see them.
+     */
+    public ExpenseQuery unlimited() {
+        if (sort == Sort.NONE && limit == Integer.MAX_VALUE) {
+            return this;
+        }
+        Builder builder = builder().categories(categories).between(startDate, endDate);
+        builder.minCents = minCents;
+        builder.maxCents = maxCents;
+        return builder.build();
+    }
+
+    // ---------- Evaluation against a loaded ledger ----------
+
+    /**
+     * The matching rows of the ledger, sorted and limited. A date range is located through the
+     * ledger's date index rather than by visiting every row.
+     */
+    public List<Expense> select(ExpenseLedger ledger) {
+        ExpenseCursor cursor = cursor(ledger);
+        return cursor.page(0, cursor.size());
+    }
+
+    /**
+     * Like {@link #select}, but keeps only the matching row numbers and their total; each
+     * Expense is created when the cursor is read.
+     */
+    public ExpenseCursor cursor(ExpenseLedger ledger) {
+        boolean[] categoryMask = categoryMask(ledger);
+        boolean byDate = hasDateRange() || sort == Sort.DATE;
+        ExpenseDateIndex index = byDate ? ledger.getDateIndex() : null;
+        int from = byDate ? index.lowerBound(getStartDay()) : 0;
+        int to = byDate ? index.upperBound(getEndDay()) : ledger.size();
+        // Rows already come out in the requested order, so the limit can stop the walk
+        boolean ordered = sort == Sort.NONE || (byDate && sort == Sort.DATE);
+
+        // Each key holds the sort value in the high half and the row in the low half
+        long[] keys = new long[Math.max(0, Math.min(to - from, ordered ? limit : Integer.MAX_VALUE))];
+        int count = 0;
+        for (int position = from; position < to && !(ordered && count == limit); position++) {
+            int row = byDate ? index.rowAt(position) : position;
+            if (categoryMask != null && !categoryMask[ledger.getCategoryId(row)]) continue;
+            if (!matchesCents(ledger.getAmountCents(row))) continue;
+            keys[count++] = ordered ? row : ((long) sortValue(ledger, row) << 32) | row;
+        }
+        if (!ordered) {
+            Arrays.sort(keys, 0, count);
+        }
+
+        int size = Math.min(count, limit);
+        int[] rows = new int[size];
+        long totalCents = 0;
+        for (int i = 0; i < size; i++) {
+            rows[i] = (int) keys[i];
+            totalCents += ledger.getAmountCents(rows[i]);
+        }
+        return new ExpenseCursor(ledger, rows, totalCents);
+    }
+
+    /**
+     * Aggregates every matching row of the ledger; sort and limit do not apply.
+     */
+    public ExpenseSummary summarize(ExpenseLedger ledger) {
+        boolean[] categoryMask = categoryMask(ledger);
+        ExpenseSummary summary = new ExpenseSummary();
+        long startDay = getStartDay();
+        long endDay = getEndDay();
+        for (int row = 0; row < ledger.size(); row++) {
+            if (categoryMask != null && !categoryMask[ledger.getCategoryId(row)]) continue;
+            int day = ledger.getEpochDay(row);
+            long cents = ledger.getAmountCents(row);
+            if (day < startDay || day > endDay || !matchesCents(cents)) continue;
+            summary.add(ledger.getCategory(row), 1, cents, cents, cents);
+        }
+        return summary;
+    }
+
+    // Per dictionary id, or null when every category matches
+    private boolean[] categoryMask(ExpenseLedger ledger) {
+        if (categories.isEmpty()) {
+            return null;
+        }
+        boolean[] mask = new boolean[ledger.getCategoryCount()];
+        for (int c = 0; c < mask.length; c++) {
+            mask[c] = categories.contains(ledger.getCategoryName(c));
+        }
+        return mask;
+    }
+
+    private int sortValue(ExpenseLedger ledger, int row) {
+        switch (sort) {
+            case DATE:
+                return ledger.getEpochDay(row);
+            case DATE_DESCENDING:
+                return -ledger.getEpochDay(row);
+            case AMOUNT:
+                return (int) ledger.getAmountCents(row);
+            case AMOUNT_DESCENDING:
+                return (int) -ledger.getAmountCents(row);
+            default:
+                return 0;
+        }
+    }
+
+    public static final class Builder {
+        private final List<String> categories = new ArrayList<>();
+        private LocalDate startDate;
+        private LocalDate endDate;
+        private long minCents = Long.MIN_VALUE;
+        private long maxCents = Long.MAX_VALUE;
+        private Sort sort = Sort.NONE;
+        private int limit = Integer.MAX_VALUE;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a category to match; rows in any of the added categories match.
+         */
+        public Builder category(String category) {
+            categories.add(category);
+            return this;
+        }
+
+        public Builder categories(Collection<String> categories) {
+            this.categories.addAll(categories);
+            return this;
+        }
+
+        public Builder from(LocalDate startDate) {
+            this.startDate = startDate;
+            return this;
+        }
+
+        public Builder to(LocalDate endDate) {
+            this.endDate = endDate;
+            return this;
+        }
+
+        public Builder between(LocalDate startDate, LocalDate endDate) {
+            return from(startDate).to(endDate);
+        }
+
+        public Builder minAmount(double amount) {
+            try {
+                this.minCents = Money.toCents(amount);
+            } catch (ValidationException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            return this;
+        }
+
+        public Builder maxAmount(double amount) {
+            try {
+                this.maxCents = Money.toCents(amount);
+            } catch (ValidationException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            return this;
+        }
+
+        public Builder sortBy(Sort sort) {
+            this.sort = sort;
+            return this;
+        }
+
+        public Builder limit(int limit) {
+            if (limit < 0) {
+                throw new IllegalArgumentException("Limit cannot be negative");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public ExpenseQuery build() {
+            return new ExpenseQuery(this);
+        }
+    }
+}
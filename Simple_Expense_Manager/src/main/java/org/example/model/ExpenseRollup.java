@@ -0,0 +1,218 @@
+package org.example.model;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Count, total, minimum and maximum of a ledger's amounts for each (month, category), so monthly
+ * and category totals cost one step per bucket rather than one per row. Months are numbered
+ * {@code year * 12 + month - 1}. Adding a row is O(1); taking one out is too, except that
+ * removing a bucket's minimum or maximum cannot be undone without the rows, so {@link #remove}
+ * reports it and the caller rebuilds.
+ */
+public class ExpenseRollup {
+    private final NavigableMap<Integer, Map<String, Bucket>> months = new TreeMap<>();
+
+    public interface BucketVisitor {
+        void bucket(int month, String category, long count, long totalCents, long minCents, long maxCents);
+    }
+
+    public static ExpenseRollup of(ExpenseLedger ledger) {
+        ExpenseRollup rollup = new ExpenseRollup();
+        // Rows mostly arrive in date order, so the month of the previous row is usually the answer
+        int lastDay = Integer.MIN_VALUE;
+        int month = 0;
+        for (int row = 0; row < ledger.size(); row++) {
+            int day = ledger.getEpochDay(row);
+            if (day != lastDay) {
+                lastDay = day;
+                month = monthOf(day);
+            }
+            rollup.add(month, ledger.getCategory(row), 1, ledger.getAmountCents(row),
+                    ledger.getAmountCents(row), ledger.getAmountCents(row));
+        }
+        return rollup;
+    }
+
+    public static ExpenseRollup of(Iterable<? extends Expense> expenses) {
+        ExpenseRollup rollup = new ExpenseRollup();
+        for (Expense expense : expenses) {
+            rollup.add(expense);
+        }
+        return rollup;
+    }
+
+    public static int monthOf(long epochDay) {
+        return monthOf(LocalDate.ofEpochDay(epochDay));
+    }
+
+    public static int monthOf(LocalDate date) {
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    /**
+     * Whether the range starts on the first of a month and ends on the last of one, so whole
+     * buckets answer it.
+     */
+    public static boolean coversWholeMonths(LocalDate startDate, LocalDate endDate) {
+        return startDate.getDayOfMonth() == 1 && endDate.getDayOfMonth() == endDate.lengthOfMonth()
+                && !startDate.isAfter(endDate);
+    }
+
+    public void add(Expense expense) {
+        long cents = expense.getAmountCents();
+        add(monthOf(expense.getDate()), expense.getCategory(), 1, cents, cents, cents);
+    }
+
+    /**
+     * Merges in a bucket's worth of rows. A negative count takes rows back out; their min and max
+     * should then be {@code Long.MAX_VALUE} and {@code Long.MIN_VALUE} so the bucket's stay as they are.
+     */
+    public void add(int month, String category, long count, long totalCents, long minCents, long maxCents) {
+        Map<String, Bucket> categories = months.computeIfAbsent(month, m -> new HashMap<>());
+        Bucket bucket = categories.get(category);
+        if (bucket == null) {
+            categories.put(category, new Bucket(count, totalCents, minCents, maxCents));
+            return;
+        }
+        bucket.count += count;
+        bucket.totalCents += totalCents;
+        bucket.minCents = Math.min(bucket.minCents, minCents);
+        bucket.maxCents = Math.max(bucket.maxCents, maxCents);
+        if (bucket.count == 0) {
+            categories.remove(category);
+            if (categories.isEmpty()) {
+                months.remove(month);
+            }
+        }
+    }
+
+    /**
+     * Merges in every bucket of another rollup, such as another ledger's.
+     */
+    public void addAll(ExpenseRollup other) {
+        other.forEach(this::add);
+    }
+
+    /**
+     * Takes the expense back out. Returns false when its bucket is missing or the amount was the
+     * bucket's minimum or maximum while other rows remain; the rollup is then no longer exact.
+     */
+    public boolean remove(Expense expense) {
+        int month = monthOf(expense.getDate());
+        Map<String, Bucket> categories = months.get(month);
+        Bucket bucket = categories == null ? null : categories.get(expense.getCategory());
+        if (bucket == null) {
+            return false;
+        }
+        long cents = expense.getAmountCents();
+        if (bucket.count == 1) {
+            categories.remove(expense.getCategory());
+            if (categories.isEmpty()) {
+                months.remove(month);
+            }
+            return bucket.totalCents == cents;
+        }
+        if (cents < bucket.minCents || cents > bucket.maxCents) {
+            return false;
+        }
+        if ((cents == bucket.minCents || cents == bucket.maxCents) && bucket.minCents != bucket.maxCents) {
+            return false;
+        }
+        bucket.count--;
+        bucket.totalCents -= cents;
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return months.isEmpty();
+    }
+
+    public long getRowCount() {
+        long[] rows = new long[1];
+        forEach((month, category, count, cents, min, max) -> rows[0] += count);
+        return rows[0];
+    }
+
+    public int getBucketCount() {
+        int count = 0;
+        for (Map<String, Bucket> categories : months.values()) {
+            count += categories.size();
+        }
+        return count;
+    }
+
+    public void forEach(BucketVisitor visitor) {
+        forEach(Integer.MIN_VALUE, Integer.MAX_VALUE, visitor);
+    }
+
+    // Buckets for the months between the two, both inclusive
+    private void forEach(int fromMonth, int toMonth, BucketVisitor visitor) {
+        for (Map.Entry<Integer, Map<String, Bucket>> entry : months.subMap(fromMonth, true, toMonth, true).entrySet()) {
+            for (Map.Entry<String, Bucket> category : entry.getValue().entrySet()) {
+                Bucket bucket = category.getValue();
+                visitor.bucket(entry.getKey(), category.getKey(), bucket.count, bucket.totalCents,
+                        bucket.minCents, bucket.maxCents);
+            }
+        }
+    }
+
+    public long getTotalCents() {
+        return getTotalCents(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public long getTotalCents(int fromMonth, int toMonth) {
+        long[] total = new long[1];
+        forEach(fromMonth, toMonth, (month, category, count, cents, min, max) -> total[0] += cents);
+        return total[0];
+    }
+
+    // Ignores case, like the ledger's category queries
+    public long getTotalCents(String category) {
+        long[] total = new long[1];
+        forEach((month, name, count, cents, min, max) -> {
+            if (name.equalsIgnoreCase(category)) total[0] += cents;
+        });
+        return total[0];
+    }
+
+    public ExpenseSummary summarize() {
+        return summarize(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public ExpenseSummary summarize(int fromMonth, int toMonth) {
+        ExpenseSummary summary = new ExpenseSummary();
+        forEach(fromMonth, toMonth, (month, category, count, cents, min, max) -> summary.add(category, count, cents, min, max));
+        return summary;
+    }
+
+    /**
+     * The query's aggregates from whole buckets; only exact when {@link ExpenseQuery#coversWholeMonths()}.
+     */
+    public ExpenseSummary summarize(ExpenseQuery query) {
+        int fromMonth = query.getStartDate() == null ? Integer.MIN_VALUE : monthOf(query.getStartDate());
+        int toMonth = query.getEndDate() == null ? Integer.MAX_VALUE : monthOf(query.getEndDate());
+        ExpenseSummary summary = new ExpenseSummary();
+        forEach(fromMonth, toMonth, (month, category, count, cents, min, max) -> {
+            if (query.matchesCategory(category)) summary.add(category, count, cents, min, max);
+        });
+        return summary;
+    }
+
+    private static final class Bucket {
+        private long count;
+        private long totalCents;
+        private long minCents;
+        private long maxCents;
+
+        private Bucket(long count, long totalCents, long minCents, long maxCents) {
+            this.count = count;
+            this.totalCents = totalCents;
+            this.minCents = minCents;
+            this.maxCents = maxCents;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.example.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates over a set of expenses, computed in a single pass. Amounts are summed as long cents,
+ * so totals are exact however many rows go in.
+ */
+public class ExpenseSummary {
+    private long totalCents;
+    private int count;
+    private long minCents;
+    private long maxCents;
+    private final Map<String, CategorySummary> categories = new TreeMap<>();
+
+    public static ExpenseSummary of(Iterable<? extends Expense> expenses) {
+        ExpenseSummary summary = new ExpenseSummary();
+        for (Expense expense : expenses) {
+            summary.add(expense.getCategory(), expense.getAmountCents());
+        }
+        return summary;
+    }
+
+    private void add(String category, long cents) {
+        add(category, 1, cents, cents, cents);
+    }
+
+    // Folds in several rows at once, as kept by an ExpenseRollup bucket
+    void add(String category, long rows, long rowsTotalCents, long rowsMinCents, long rowsMaxCents) {
+        if (count == 0 || rowsMinCents < minCents) minCents = rowsMinCents;
+        if (count == 0 || rowsMaxCents > maxCents) maxCents = rowsMaxCents;
+        totalCents += rowsTotalCents;
+        count += (int) rows;
+        categories.computeIfAbsent(category, CategorySummary::new).add(rows, rowsTotalCents, rowsMinCents, rowsMaxCents);
+    }
+
+    public double getTotal() {
+        return Money.toAmount(totalCents);
+    }
+
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return Money.toAmount(minCents);
+    }
+
+    public long getMinCents() {
+        return minCents;
+    }
+
+    public double getMax() {
+        return Money.toAmount(maxCents);
+    }
+
+    public long getMaxCents() {
+        return maxCents;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public List<String> getCategoryNames() {
+        return new ArrayList<>(categories.keySet());
+    }
+
+    public List<CategorySummary> getCategories() {
+        return Collections.unmodifiableList(new ArrayList<>(categories.values()));
+    }
+
+    public CategorySummary getCategory(String category) {
+        for (CategorySummary summary : categories.values()) {
+            if (summary.getCategory().equalsIgnoreCase(category)) {
+                return summary;
+            }
+        }
+        return new CategorySummary(category);
+    }
+
+    public double getPercentage(CategorySummary category) {
+        return totalCents > 0 ? (category.getTotalCents() * 100.0) / totalCents : 0;
+    }
+
+    public static class CategorySummary {
+        private final String category;
+        private long totalCents;
+        private int count;
+        private long minCents;
+        private long maxCents;
+
+        private CategorySummary(String category) {
+            this.category = category;
+        }
+
+        private void add(long rows, long rowsTotalCents, long rowsMinCents, long rowsMaxCents) {
+            if (count == 0 || rowsMinCents < minCents) minCents = rowsMinCents;
+            if (count == 0 || rowsMaxCents > maxCents) maxCents = rowsMaxCents;
+            totalCents += rowsTotalCents;
+            count += (int) rows;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public double getTotal() {
+            return Money.toAmount(totalCents);
+        }
+
+        public long getTotalCents() {
+            return totalCents;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getMin() {
+            return Money.toAmount(minCents);
+        }
+
+        public long getMinCents() {
+            return minCents;
+        }
+
+        public double getMax() {
+            return Money.toAmount(maxCents);
+        }
+
+        public long getMaxCents() {
+            return maxCents;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how many rows were stored and why each of the others was not.
+ */
+public class ImportResult {
+    private int imported;
+    private final List<Rejection> rejections = new ArrayList<>();
+
+    public void addImported(int count) {
+        imported += count;
+    }
+
+    public void reject(long lineNumber, String line, String reason) {
+        rejections.add(new Rejection(lineNumber, line, reason));
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getRejectedCount() {
+        return rejections.size();
+    }
+
+    public List<Rejection> getRejections() {
+        return Collections.unmodifiableList(rejections);
+    }
+
+    public static class Rejection {
+        private final long lineNumber;
+        private final String line;
+        private final String reason;
+
+        Rejection(long lineNumber, String line, String reason) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+            this.reason = reason;
+        }
+
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        public String getLine() {
+            return line;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + lineNumber + ": " + reason + " [" + line + "]";
+        }
+    }
+}
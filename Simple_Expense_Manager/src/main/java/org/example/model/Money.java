@@ -0,0 +1,90 @@
+package org.example.model;
+
+import org.example.exception.ValidationException;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amounts held as long cents, so sums are exact. Text is produced by writing digits directly,
+ * never through String.format, and always matches what {@code "%.2f"} printed for the same
+ * amount, so ledgers written before and after the switch are byte-for-byte alike.
+ */
+public final class Money {
+    public static final long MAX_CENTS = 100_000_000L;
+    private static final double MAX_AMOUNT = MAX_CENTS / 100.0;
+
+    private Money() {
+    }
+
+    /**
+     * Rounds half-up to the cent, on the amount's shortest decimal form like {@code "%.2f"} does,
+     * so 0.285 becomes 29 cents even though the double is slightly below it. Amounts that are not
+     * finite or lie beyond 1,000,000 either way are rejected before they can overflow a long.
+     */
+    public static long toCents(double amount) throws ValidationException {
+        if (Double.isNaN(amount)) {
+            throw new ValidationException("Amount must be a number");
+        }
+        if (amount > MAX_AMOUNT) {
+            throw new ValidationException("Amount cannot exceed 1,000,000");
+        }
+        if (amount < -MAX_AMOUNT) {
+            throw new ValidationException("Amount cannot be below -1,000,000");
+        }
+        double scaled = amount * 100;
+        double nearest = Math.rint(scaled);
+        if (Math.abs(scaled - nearest) < 1e-6 && Math.abs(nearest) < 1e15) {
+            return (long) nearest;
+        }
+        return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValueExact();
+    }
+
+    public static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    public static String format(long cents) {
+        return appendCents(new StringBuilder(24), cents).toString();
+    }
+
+    public static StringBuilder appendCents(StringBuilder target, long cents) {
+        if (cents < 0) {
+            target.append('-');
+            if (cents == Long.MIN_VALUE) {
+                // Not representable once negated; never a real amount
+                return target.append(BigDecimal.valueOf(cents).movePointLeft(2).negate().toPlainString());
+            }
+            cents = -cents;
+        }
+        target.append(cents / 100).append('.');
+        int fraction = (int) (cents % 100);
+        return target.append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+
+    /**
+     * Writes the amount as ASCII into {@code target} at {@code offset} and returns the offset
+     * just past it. The array needs room for 23 bytes.
+     */
+    public static int writeCents(byte[] target, int offset, long cents) {
+        if (cents < 0) {
+            target[offset++] = '-';
+            cents = -cents;
+        }
+        long whole = cents / 100;
+        int digits = 1;
+        for (long rest = whole / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            target[i] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        }
+        offset += digits;
+        int fraction = (int) (cents % 100);
+        target[offset++] = '.';
+        target[offset++] = (byte) ('0' + fraction / 10);
+        target[offset++] = (byte) ('0' + fraction % 10);
+        return offset;
+    }
+}
@@ -15,6 +15,22 @@ public class SimpleExpense extends Expense {
         super(expenseId, userId, category, amount, dateTime);
     }
 
+    private SimpleExpense() {
+    }
+
+    /**
+     * Rebuilds an expense that was already validated before it was persisted, skipping validation.
+     */
+    public static SimpleExpense fromStorageCents(String expenseId, String userId, String category, long amountCents, LocalDate date) {
+        SimpleExpense expense = new SimpleExpense();
+        expense.expenseId = expenseId;
+        expense.userId = userId;
+        expense.category = category;
+        expense.amountCents = amountCents;
+        expense.dateTime = date;
+        return expense;
+    }
+
 //    public SimpleExpense(String userId, String category, double amount, LocalDate date) {
 //        super();
 //    }
@@ -0,0 +1,66 @@
+package org.example.model;
+
+import org.example.interfaces.ExpenseIdGenerator;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered expense ids: 41 bits of milliseconds since 2024-01-01 UTC, a 10-bit node id and
+ * an 11-bit sequence, packed below {@link ExpenseIdCodec}'s generated-id tag. Ids from one node
+ * are strictly increasing; the last issued id lives in a single AtomicLong advanced by CAS, so
+ * threads never block each other. When a millisecond's sequence runs out the clock is borrowed
+ * from the next millisecond instead of waiting, and a clock that steps backwards is ignored.
+ */
+public class SnowflakeIdGenerator implements ExpenseIdGenerator {
+    static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 11;
+    static final int TIMESTAMP_BITS = 41;
+
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    private final long node;
+    // (timestamp << SEQUENCE_BITS) | sequence of the last issued id
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeIdGenerator(int node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE);
+        }
+        this.node = node;
+    }
+
+    /**
+     * Uses {@code -Dexpense.node.id} when set, otherwise a random node id, so separate processes
+     * writing the same ledgers are unlikely to share one.
+     */
+    public static SnowflakeIdGenerator fromSystemProperty() {
+        Integer node = Integer.getInteger("expense.node.id");
+        return new SnowflakeIdGenerator(node != null ? node : new SecureRandom().nextInt((int) MAX_NODE + 1));
+    }
+
+    public long nextCode() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long previous;
+        long next;
+        do {
+            previous = last.get();
+            // Same or earlier millisecond: continue the sequence, carrying into the timestamp
+            next = Math.max(now, previous + 1);
+        } while (!last.compareAndSet(previous, next));
+
+        long timestamp = next >>> SEQUENCE_BITS;
+        if (timestamp >>> TIMESTAMP_BITS != 0) {
+            throw new IllegalStateException("Expense id timestamp range exhausted");
+        }
+        return ExpenseIdCodec.GENERATED_TAG | (timestamp << (NODE_BITS + SEQUENCE_BITS))
+                | (node << SEQUENCE_BITS) | (next & MAX_SEQUENCE);
+    }
+
+    @Override
+    public String nextId() {
+        return ExpenseIdCodec.decode(nextCode());
+    }
+}
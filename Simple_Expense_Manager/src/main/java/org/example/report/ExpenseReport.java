@@ -0,0 +1,126 @@
+package org.example.report;
+
+import org.example.model.ExpenseRollup;
+import org.example.model.Money;
+import org.example.model.User;
+
+import java.io.PrintWriter;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Totals across many users' ledgers, merged from one {@link ExpenseRollup} per ledger: spend per
+ * category per month, and each user's total for ranking the top spenders.
+ */
+public class ExpenseReport {
+    private final ExpenseRollup rollup = new ExpenseRollup();
+    private final List<Spender> spenders = new ArrayList<>();
+    private int failedLedgers;
+
+    void add(User user, ExpenseRollup ledger) {
+        rollup.addAll(ledger);
+        spenders.add(new Spender(user, ledger.getRowCount(), ledger.getTotalCents()));
+    }
+
+    void fail() {
+        failedLedgers++;
+    }
+
+    /**
+     * Every ledger's buckets merged: count, total, minimum and maximum per (month, category).
+     */
+    public ExpenseRollup getRollup() {
+        return rollup;
+    }
+
+    public int getLedgerCount() {
+        return spenders.size();
+    }
+
+    public int getFailedLedgerCount() {
+        return failedLedgers;
+    }
+
+    public long getTotalCents() {
+        return rollup.getTotalCents();
+    }
+
+    /**
+     * The users with the largest totals, largest first.
+     */
+    public List<Spender> getTopSpenders(int count) {
+        List<Spender> sorted = new ArrayList<>(spenders);
+        sorted.sort(Comparator.comparingLong(Spender::getTotalCents).reversed());
+        return sorted.subList(0, Math.min(count, sorted.size()));
+    }
+
+    /**
+     * Writes the month/category table as CSV lines, then the top spenders.
+     */
+    public void print(PrintWriter out, int topSpenders) {
+        List<Line> lines = new ArrayList<>(rollup.getBucketCount());
+        rollup.forEach((month, category, count, totalCents, minCents, maxCents) ->
+                lines.add(new Line(month, category, count, totalCents)));
+        lines.sort(Comparator.comparingInt((Line line) -> line.month).thenComparing(line -> line.category));
+
+        out.println("Month,Category,Expenses,Total");
+        StringBuilder text = new StringBuilder(64);
+        for (Line line : lines) {
+            text.setLength(0);
+            text.append(YearMonth.of(Math.floorDiv(line.month, 12), Math.floorMod(line.month, 12) + 1))
+                    .append(',').append(line.category).append(',').append(line.count).append(',');
+            out.println(Money.appendCents(text, line.totalCents));
+        }
+
+        out.println();
+        out.println("Top " + topSpenders + " spenders");
+        int rank = 1;
+        for (Spender spender : getTopSpenders(topSpenders)) {
+            out.println(rank++ + ". " + spender.getUser().getName() + " (" + spender.getUser().getUsername() + "): $"
+                    + Money.format(spender.getTotalCents()) + " over " + spender.getExpenseCount() + " expenses");
+        }
+        out.println();
+        out.println("Ledgers: " + getLedgerCount() + (failedLedgers > 0 ? " (" + failedLedgers + " failed)" : "")
+                + ", total $" + Money.format(getTotalCents()));
+    }
+
+    private static final class Line {
+        private final int month;
+        private final String category;
+        private final long count;
+        private final long totalCents;
+
+        private Line(int month, String category, long count, long totalCents) {
+            this.month = month;
+            this.category = category;
+            this.count = count;
+            this.totalCents = totalCents;
+        }
+    }
+
+    public static class Spender {
+        private final User user;
+        private final long expenseCount;
+        private final long totalCents;
+
+        Spender(User user, long expenseCount, long totalCents) {
+            this.user = user;
+            this.expenseCount = expenseCount;
+            this.totalCents = totalCents;
+        }
+
+        public User getUser() {
+            return user;
+        }
+
+        public long getExpenseCount() {
+            return expenseCount;
+        }
+
+        public long getTotalCents() {
+            return totalCents;
+        }
+    }
+}
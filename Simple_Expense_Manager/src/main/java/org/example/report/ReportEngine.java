@@ -0,0 +1,89 @@
+package org.example.report;
+
+import org.example.exception.UserNotFoundException;
+import org.example.metrics.Metrics;
+import org.example.metrics.OperationMetrics;
+import org.example.model.ExpenseRollup;
+import org.example.model.User;
+import org.example.service.ExpenseFileService;
+import org.example.service.UserStorageService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Builds an {@link ExpenseReport} over every ledger in the expenses directory. Each ledger's
+ * partial aggregate is its monthly rollup, read from the {@code .rollup} sidecar when that is
+ * current and otherwise computed by streaming the file, so most ledgers cost one small read.
+ * Nothing is written: ledgers are read in whatever format is on disk and stale sidecars are
+ * left for their owner to replace.
+ * Ledgers run on virtual threads, at most {@code parallelism} at a time, which keeps rebuilds
+ * from oversubscribing the cores and bounds the open files; the partials are merged on the
+ * calling thread once they are all in. Ledgers without a user, or that fail to read, are
+ * reported on System.err and left out.
+ */
+public class ReportEngine {
+    private static final OperationMetrics RUN = Metrics.operation("report.run");
+
+    private final UserStorageService userStorageService;
+    private final ExpenseFileService expenseFileService;
+    private final int parallelism;
+
+    public ReportEngine(UserStorageService userStorageService, ExpenseFileService expenseFileService, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.userStorageService = userStorageService;
+        this.expenseFileService = expenseFileService;
+        this.parallelism = parallelism;
+    }
+
+    public ExpenseReport run() throws IOException, InterruptedException {
+        try (OperationMetrics.Sample sample = RUN.start()) {
+            List<String> csvIds = expenseFileService.listLedgers();
+            List<User> users = new ArrayList<>(csvIds.size());
+            List<Future<ExpenseRollup>> partials = new ArrayList<>(csvIds.size());
+            Semaphore inFlight = new Semaphore(parallelism);
+
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (String csvId : csvIds) {
+                    User user;
+                    try {
+                        user = userStorageService.getUserByCsvId(csvId);
+                    } catch (UserNotFoundException e) {
+                        System.err.println("Skipping ledger without a user: " + csvId);
+                        continue;
+                    }
+
+                    inFlight.acquire();
+                    users.add(user);
+                    partials.add(executor.submit(() -> {
+                        try {
+                            return expenseFileService.readRollup(csvId, user.getUserId());
+                        } finally {
+                            inFlight.release();
+                        }
+                    }));
+                }
+            }
+
+            ExpenseReport report = new ExpenseReport();
+            for (int i = 0; i < partials.size(); i++) {
+                try {
+                    report.add(users.get(i), partials.get(i).get());
+                } catch (ExecutionException e) {
+                    System.err.println("Error reading ledger " + users.get(i).getCsvId() + ": " + e.getCause().getMessage());
+                    report.fail();
+                }
+            }
+            sample.rows(report.getLedgerCount()).success();
+            return report;
+        }
+    }
+}
@@ -1,20 +1,65 @@
 package org.example.repository;
 
+import org.example.metrics.Metrics;
+import org.example.metrics.OperationMetrics;
 import org.example.model.Expense;
+import org.example.model.ExpenseCursor;
+import org.example.model.ExpenseLedger;
+import org.example.model.ExpenseQuery;
+import org.example.model.ExpenseRollup;
+import org.example.model.ExpenseSummary;
+import org.example.model.ImportResult;
+import org.example.model.Money;
+import org.example.model.SimpleExpense;
 import org.example.exception.ExpenseNotFoundException;
+import org.example.exception.ValidationException;
 import org.example.service.ExpenseFileService;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class ExpenseRepository {
+    private static final int IMPORT_BATCH_SIZE = 8192;
+    private static final OperationMetrics ADD_EXPENSE = Metrics.operation("repository.addExpense");
+    private static final OperationMetrics IMPORT_EXPENSES = Metrics.operation("repository.importExpenses");
+    private static final OperationMetrics IMPORT_CSV = Metrics.operation("repository.importCsv");
+    private static final OperationMetrics UPDATE_EXPENSE = Metrics.operation("repository.updateExpense");
+    private static final OperationMetrics DELETE_EXPENSE = Metrics.operation("repository.deleteExpense");
+    private static final OperationMetrics EXPORT_CSV = Metrics.operation("repository.exportCsv");
+    private static final OperationMetrics GET_ALL = Metrics.operation("repository.getAllExpenses");
+    private static final OperationMetrics BY_CATEGORY = Metrics.operation("repository.getExpensesByCategory");
+    private static final OperationMetrics BY_DATE_RANGE = Metrics.operation("repository.getExpensesByDateRange");
+    private static final OperationMetrics TOTAL_BY_DATE_RANGE = Metrics.operation("repository.getTotalExpensesByDateRange");
+    private static final OperationMetrics BY_ID = Metrics.operation("repository.getExpenseById");
+    private static final OperationMetrics TOTAL = Metrics.operation("repository.getTotalExpenses");
+    private static final OperationMetrics TOTAL_BY_CATEGORY = Metrics.operation("repository.getTotalExpensesByCategory");
+    private static final OperationMetrics SUMMARY = Metrics.operation("repository.getSummary");
+    private static final OperationMetrics CATEGORIES = Metrics.operation("repository.getAvailableCategories");
+    private static final OperationMetrics FIND = Metrics.operation("repository.find");
+    private static final OperationMetrics OPEN_CURSOR = Metrics.operation("repository.openCursor");
+    private static final OperationMetrics SUMMARIZE = Metrics.operation("repository.summarize");
+
     private ExpenseFileService fileService;
     private String csvId;
     private String userId;
 
+    // Ledger cached for the session, reloaded only when the file changes outside this repository
+    private ExpenseLedger cachedLedger;
+    private long cachedLastModified;
+    private long cachedFileSize;
+    // Queued by addExpenseAsync while the cache was current, and not yet folded into it
+    private final List<Expense> pendingExpenses = new ArrayList<>();
+    private final List<CompletableFuture<Void>> pendingWrites = new ArrayList<>();
+
     public ExpenseRepository(ExpenseFileService fileService, String csvId, String userId) {
         this.fileService = fileService;
         this.csvId = csvId;
@@ -22,35 +67,375 @@ public class ExpenseRepository {
     }
 
     public void addExpense(Expense expense) throws IOException {
-        fileService.addExpense(csvId, expense);
+        try (OperationMetrics.Sample sample = ADD_EXPENSE.start()) {
+            boolean cacheValid = isCacheValid();
+            fileService.addExpense(csvId, expense);
+
+            if (cacheValid) {
+                cachedLedger.add(expense);
+                rememberLedgerState(fileService.getLastModified(csvId), fileService.getFileSize(csvId));
+            } else {
+                invalidateCache();
+            }
+            sample.success();
+        }
     }
 
-    public void updateExpense(String expenseId, Expense updatedExpense) throws ExpenseNotFoundException, IOException {
+    /**
+     * Queues the expense on the ledger's group-commit writer. If the cache is current the expense
+     * joins it once every queued write has landed, which the next read waits for; if one fails
+     * the cache is dropped instead.
+     */
+    public CompletableFuture<Void> addExpenseAsync(Expense expense) {
+        boolean cacheValid = !pendingWrites.isEmpty() || isCacheValid();
+        CompletableFuture<Void> written = fileService.addExpenseAsync(csvId, expense);
+        if (cacheValid) {
+            pendingExpenses.add(expense);
+            pendingWrites.add(written);
+        } else {
+            invalidateCache();
+        }
+        return written;
+    }
+
+    /**
+     * Validates and appends a batch of expenses with one write to the ledger file. Expenses that
+     * fail validation or belong to another user are reported, not stored.
+     */
+    public ImportResult importExpenses(Iterable<? extends Expense> expenses) throws IOException {
+        try (OperationMetrics.Sample sample = IMPORT_EXPENSES.start()) {
+            ImportResult result = new ImportResult();
+            List<Expense> batch = new ArrayList<>();
+            long number = 0;
+            for (Expense expense : expenses) {
+                number++;
+                try {
+                    expense.validate();
+                    if (!userId.equals(expense.getUserId())) {
+                        throw new ValidationException("Expense belongs to another user");
+                    }
+                    batch.add(expense);
+                } catch (ValidationException e) {
+                    result.reject(number, expense.toCSV(), e.getMessage());
+                }
+            }
+            boolean cacheValid = isCacheValid();
+            appendBatch(batch, result, cacheValid);
+            finishImport(cacheValid);
+            sample.success();
+            return result;
+        }
+    }
+
+    /**
+     * Imports an external CSV file, such as a bank statement, streaming it in batches. Rows are
+     * either {@code Category,Amount,Date} or the exported layout
+     * {@code ExpenseID,UserID,Category,Amount,Date}; a header row is skipped. Every imported row
+     * gets a new expense id and belongs to this repository's user.
+     */
+    public ImportResult importCsv(Path file) throws IOException {
+        try (OperationMetrics.Sample sample = IMPORT_CSV.start()) {
+            ImportResult result = new ImportResult();
+            boolean cacheValid = isCacheValid();
+            List<Expense> batch = new ArrayList<>();
+
+            try (BufferedReader reader = Files.newBufferedReader(file)) {
+                String line;
+                long number = 0;
+                while ((line = reader.readLine()) != null) {
+                    number++;
+                    if (line.trim().isEmpty()) continue;
+                    String[] fields = line.split(",", -1);
+                    if (number == 1 && fields.length > 0 && isHeader(fields)) continue;
+
+                    try {
+                        batch.add(parseImportRow(fields));
+                    } catch (ValidationException e) {
+                        result.reject(number, line, e.getMessage());
+                        continue;
+                    }
+                    if (batch.size() == IMPORT_BATCH_SIZE) {
+                        appendBatch(batch, result, cacheValid);
+                        batch.clear();
+                    }
+                }
+                appendBatch(batch, result, cacheValid);
+            } catch (IOException e) {
+                // Part of the file may already be written; reload rather than trust the cache
+                invalidateCache();
+                throw e;
+            }
+            finishImport(cacheValid);
+            sample.success();
+            return result;
+        }
+    }
+
+    private static boolean isHeader(String[] fields) {
+        String first = fields[0].trim();
+        return first.equalsIgnoreCase("Category") || first.equalsIgnoreCase("ExpenseID");
+    }
+
+    private Expense parseImportRow(String[] fields) throws ValidationException {
+        int offset;
+        if (fields.length == 3) {
+            offset = 0;
+        } else if (fields.length == 5) {
+            offset = 2;
+        } else {
+            throw new ValidationException("Expected 3 or 5 columns but found " + fields.length);
+        }
+
+        String category = fields[offset].trim();
+        double amount;
+        try {
+            amount = Double.parseDouble(fields[offset + 1].trim());
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Invalid amount: " + fields[offset + 1].trim());
+        }
+        LocalDate date;
         try {
-            fileService.updateExpense(csvId, expenseId, updatedExpense);
-        } catch (org.example.exception.ValidationException e) {
-            throw new IOException("Validation error: " + e.getMessage(), e);
+            date = LocalDate.parse(fields[offset + 2].trim());
+        } catch (DateTimeParseException e) {
+            throw new ValidationException("Invalid date: " + fields[offset + 2].trim());
+        }
+        return new SimpleExpense(userId, category, amount, date);
+    }
+
+    private void appendBatch(List<Expense> batch, ImportResult result, boolean cacheValid) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        result.addImported(fileService.appendExpenses(csvId, userId, batch));
+        if (cacheValid) {
+            batch.forEach(cachedLedger::add);
+        }
+    }
+
+    // The cache is brought up to date once per import, not once per row
+    private void finishImport(boolean cacheValid) {
+        if (cacheValid) {
+            rememberLedgerState(fileService.getLastModified(csvId), fileService.getFileSize(csvId));
+        } else {
+            invalidateCache();
+        }
+    }
+
+    public void updateExpense(String expenseId, Expense updatedExpense) throws ExpenseNotFoundException, IOException {
+        try (OperationMetrics.Sample sample = UPDATE_EXPENSE.start()) {
+            boolean cacheValid = isCacheValid();
+            int row = cacheValid ? rowOfExpense(expenseId) : -1;
+            try {
+                // Without a cached ledger the file service finds the row through its id index
+                fileService.updateExpense(csvId, expenseId, updatedExpense);
+            } catch (org.example.exception.ValidationException e) {
+                throw new IOException("Validation error: " + e.getMessage(), e);
+            }
+
+            if (cacheValid) {
+                cachedLedger.set(row, updatedExpense);
+                rememberLedgerState(fileService.getLastModified(csvId), fileService.getFileSize(csvId));
+            } else {
+                invalidateCache();
+            }
+            sample.success();
+        }
+    }
+
+    public void deleteExpense(String expenseId) throws ExpenseNotFoundException, IOException {
+        try (OperationMetrics.Sample sample = DELETE_EXPENSE.start()) {
+            boolean cacheValid = isCacheValid();
+            int row = -1;
+            if (cacheValid) {
+                row = rowOfExpense(expenseId);
+            } else if (fileService.findExpenseById(csvId, userId, expenseId) == null) {
+                throw new ExpenseNotFoundException("Expense with ID '" + expenseId + "' not found");
+            }
+            fileService.deleteExpense(csvId, expenseId);
+
+            if (cacheValid) {
+                cachedLedger.remove(row);
+                rememberLedgerState(fileService.getLastModified(csvId), fileService.getFileSize(csvId));
+            } else {
+                invalidateCache();
+            }
+            sample.success();
+        }
+    }
+
+    private int rowOfExpense(String expenseId) throws ExpenseNotFoundException {
+        int row = cachedLedger.indexOf(expenseId);
+        if (row < 0) {
+            throw new ExpenseNotFoundException("Expense with ID '" + expenseId + "' not found");
+        }
+        return row;
+    }
+
+    public long exportCsv(Path target, String category, LocalDate startDate, LocalDate endDate, boolean gzip) throws IOException {
+        ExpenseQuery.Builder query = ExpenseQuery.builder().between(startDate, endDate);
+        if (category != null) {
+            query.category(category);
+        }
+        return exportCsv(target, query.build(), gzip);
+    }
+
+    /**
+     * Streams the expenses matching the query, optionally gzipped, to a CSV file without loading
+     * them (see {@link ExpenseFileService#exportCsv}). Returns the number of rows written, or -1
+     * when the file was copied verbatim and no cached ledger knows the count.
+     */
+    public long exportCsv(Path target, ExpenseQuery query, boolean gzip) throws IOException {
+        try (OperationMetrics.Sample sample = EXPORT_CSV.start()) {
+            boolean cacheValid = isCacheValid();
+            long rows = fileService.exportCsv(csvId, userId, target, query, gzip);
+            if (cacheValid) {
+                // Compacting a pending log first rewrites the file without changing its rows
+                rememberLedgerState(fileService.getLastModified(csvId), fileService.getFileSize(csvId));
+                if (rows < 0) {
+                    rows = cachedLedger.size();
+                }
+            }
+            sample.success();
+            return rows;
+        }
+    }
+
+    public void invalidateCache() {
+        cachedLedger = null;
+        pendingExpenses.clear();
+        pendingWrites.clear();
+    }
+
+    private boolean isCacheValid() {
+        settlePendingWrites();
+        return cachedLedger != null
+                && cachedLastModified == fileService.getLastModified(csvId)
+                && cachedFileSize == fileService.getFileSize(csvId);
+    }
+
+    private void settlePendingWrites() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        boolean written = true;
+        for (CompletableFuture<Void> write : pendingWrites) {
+            try {
+                write.join();
+            } catch (CompletionException | CancellationException e) {
+                written = false;
+            }
+        }
+        if (written) {
+            pendingExpenses.forEach(cachedLedger::add);
+            rememberLedgerState(fileService.getLastModified(csvId), fileService.getFileSize(csvId));
+        } else {
+            cachedLedger = null;
+        }
+        pendingExpenses.clear();
+        pendingWrites.clear();
+    }
+
+    private void rememberLedgerState(long lastModified, long fileSize) {
+        cachedLastModified = lastModified;
+        cachedFileSize = fileSize;
+    }
+
+    private ExpenseLedger getLedger() throws IOException {
+        if (!isCacheValid()) {
+            // Capture the file state before reading so a concurrent external write triggers another reload
+            long lastModified = fileService.getLastModified(csvId);
+            long fileSize = fileService.getFileSize(csvId);
+            cachedLedger = fileService.loadLedger(csvId, userId);
+            rememberLedgerState(lastModified, fileSize);
+
+            if (fileService.needsCompaction(csvId)) {
+                // Compaction reloads under the exclusive lock, so take the ledger it wrote
+                cachedLedger = fileService.compact(csvId, userId);
+                rememberLedgerState(fileService.getLastModified(csvId), fileService.getFileSize(csvId));
+            }
         }
+        return cachedLedger;
     }
 
-    private List<Expense> getAllExpensesInternal() throws IOException {
-        return fileService.loadAllExpenses(csvId, userId);
+    // Totals come from the file service's monthly rollup, without loading or scanning rows
+    private ExpenseRollup getRollup() throws IOException {
+        return fileService.loadRollup(csvId, userId);
     }
 
     public List<Expense> getAllExpenses() {
-        try {
-            return getAllExpensesInternal();
+        try (OperationMetrics.Sample sample = GET_ALL.start()) {
+            List<Expense> expenses = getLedger().asList();
+            sample.success();
+            return expenses;
+        } catch (IOException e) {
+            System.err.println("Error loading expenses: " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * The expenses matching the query, sorted and limited as it asks. A ledger this repository
+     * already holds answers from memory, as does an unfiltered query, which loads and keeps it;
+     * otherwise the filters are pushed into a scan of the file and only matching rows are read.
+     */
+    public List<Expense> find(ExpenseQuery query) {
+        try (OperationMetrics.Sample sample = FIND.start()) {
+            List<Expense> expenses = query.select(queryLedger(query));
+            sample.success();
+            return expenses;
         } catch (IOException e) {
             System.err.println("Error loading expenses: " + e.getMessage());
             return List.of();
         }
     }
 
+    /**
+     * Like {@link #find}, but returns a cursor that creates each Expense only when it is read, for
+     * listings too large to hold as objects. It reads this repository's cached ledger when there
+     * is one, so close it before the next write.
+     */
+    public ExpenseCursor openCursor(ExpenseQuery query) throws IOException {
+        try (OperationMetrics.Sample sample = OPEN_CURSOR.start()) {
+            ExpenseCursor cursor = query.cursor(queryLedger(query));
+            sample.rows(cursor.size()).success();
+            return cursor;
+        }
+    }
+
+    /**
+     * Aggregates every expense matching the query's filters; its sort and limit do not apply.
+     * Queries over whole months, with no amount range, are answered from the monthly rollup.
+     */
+    public ExpenseSummary summarize(ExpenseQuery query) {
+        try (OperationMetrics.Sample sample = SUMMARIZE.start()) {
+            if (query.coversWholeMonths()) {
+                ExpenseSummary summary = getRollup().summarize(query);
+                sample.success();
+                return summary;
+            }
+            ExpenseSummary summary = query.summarize(queryLedger(query.unlimited()));
+            sample.success();
+            return summary;
+        } catch (IOException e) {
+            System.err.println("Error loading expenses: " + e.getMessage());
+            return ExpenseSummary.of(List.of());
+        }
+    }
+
+    // The cached ledger, or the rows a filtered scan of the file lets through
+    private ExpenseLedger queryLedger(ExpenseQuery query) throws IOException {
+        boolean filtered = query.hasCategories() || query.hasDateRange() || query.hasAmountRange();
+        if (isCacheValid() || !filtered) {
+            return getLedger();
+        }
+        return fileService.queryLedger(csvId, userId, query);
+    }
+
     public List<Expense> getExpensesByCategory(String category) {
-        try {
-            return getAllExpensesInternal().stream()
-                    .filter(e -> e.getCategory().equalsIgnoreCase(category))
-                    .collect(Collectors.toList());
+        try (OperationMetrics.Sample sample = BY_CATEGORY.start()) {
+            List<Expense> expenses = ExpenseQuery.builder().category(category).build().select(getLedger());
+            sample.success();
+            return expenses;
         } catch (IOException e) {
             System.err.println("Error loading expenses: " + e.getMessage());
             return List.of();
@@ -58,37 +443,66 @@ public class ExpenseRepository {
     }
 
     public List<Expense> getExpensesByDate(LocalDate date) {
-        try {
-            return getAllExpensesInternal().stream()
-                    .filter(e -> e.getDate().equals(date))
-                    .collect(Collectors.toList());
+        return getExpensesByDateRange(date, date);
+    }
+
+    /**
+     * Expenses dated between the two dates (both inclusive), in date order.
+     */
+    public List<Expense> getExpensesByDateRange(LocalDate startDate, LocalDate endDate) {
+        try (OperationMetrics.Sample sample = BY_DATE_RANGE.start()) {
+            List<Expense> expenses = ExpenseQuery.builder().between(startDate, endDate).sortBy(ExpenseQuery.Sort.DATE).build().select(getLedger());
+            sample.success();
+            return expenses;
         } catch (IOException e) {
             System.err.println("Error loading expenses: " + e.getMessage());
             return List.of();
         }
     }
 
+    public double getTotalExpensesByDateRange(LocalDate startDate, LocalDate endDate) {
+        try (OperationMetrics.Sample sample = TOTAL_BY_DATE_RANGE.start()) {
+            if (ExpenseRollup.coversWholeMonths(startDate, endDate)) {
+                double total = Money.toAmount(getRollup().getTotalCents(ExpenseRollup.monthOf(startDate), ExpenseRollup.monthOf(endDate)));
+                sample.success();
+                return total;
+            }
+            double total = Money.toAmount(getLedger().getDateIndex().totalCents(startDate.toEpochDay(), endDate.toEpochDay()));
+            sample.success();
+            return total;
+        } catch (IOException e) {
+            System.err.println("Error loading expenses: " + e.getMessage());
+            return 0.0;
+        }
+    }
+
     public Expense getExpenseById(String expenseId) throws ExpenseNotFoundException {
-        try {
-            Optional<Expense> expense = getAllExpensesInternal().stream()
-                    .filter(e -> e.getExpenseId().equals(expenseId))
-                    .findFirst();
-            
-            if (expense.isEmpty()) {
+        try (OperationMetrics.Sample sample = BY_ID.start()) {
+            Expense expense;
+            if (isCacheValid()) {
+                int row = cachedLedger.indexOf(expenseId);
+                expense = row < 0 ? null : cachedLedger.toExpense(row);
+            } else {
+                // A single lookup is not worth loading the whole ledger for
+                expense = fileService.findExpenseById(csvId, userId, expenseId);
+            }
+
+            if (expense == null) {
                 throw new ExpenseNotFoundException("Expense with ID '" + expenseId + "' not found");
             }
-            
-            return expense.get();
+
+            sample.success();
+            return expense;
         } catch (IOException e) {
             throw new ExpenseNotFoundException("Error loading expenses: " + e.getMessage());
         }
     }
 
     public double getTotalExpenses() {
-        try {
-            return getAllExpensesInternal().stream()
-                    .mapToDouble(Expense::getAmount)
-                    .sum();
+        try (OperationMetrics.Sample sample = TOTAL.start()) {
+            double total = Money.toAmount(getRollup().getTotalCents());
+            sample.success();
+            return total;
         } catch (IOException e) {
             System.err.println("Error loading expenses: " + e.getMessage());
             return 0.0;
@@ -96,27 +510,32 @@ public class ExpenseRepository {
     }
 
     public double getTotalExpensesByCategory(String category) {
-        try {
-            return getAllExpensesInternal().stream()
-                    .filter(e -> e.getCategory().equalsIgnoreCase(category))
-                    .mapToDouble(Expense::getAmount)
-                    .sum();
+        try (OperationMetrics.Sample sample = TOTAL_BY_CATEGORY.start()) {
+            double total = Money.toAmount(getRollup().getTotalCents(category));
+            sample.success();
+            return total;
         } catch (IOException e) {
             System.err.println("Error loading expenses: " + e.getMessage());
             return 0.0;
         }
     }
 
-    public List<String> getAvailableCategories() {
-        try {
-            return getAllExpensesInternal().stream()
-                    .map(Expense::getCategory)
-                    .distinct()
-                    .sorted()
-                    .collect(Collectors.toList());
+    public ExpenseSummary getSummary() {
+        try (OperationMetrics.Sample sample = SUMMARY.start()) {
+            ExpenseSummary summary = getRollup().summarize();
+            sample.success();
+            return summary;
         } catch (IOException e) {
             System.err.println("Error loading expenses: " + e.getMessage());
-            return List.of();
+            return ExpenseSummary.of(List.of());
+        }
+    }
+
+    public List<String> getAvailableCategories() {
+        try (OperationMetrics.Sample sample = CATEGORIES.start()) {
+            List<String> categories = getSummary().getCategoryNames();
+            sample.success();
+            return categories;
         }
     }
 }
@@ -0,0 +1,428 @@
+package org.example.server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.example.exception.DuplicateUserException;
+import org.example.exception.ExpenseNotFoundException;
+import org.example.exception.UserNotFoundException;
+import org.example.exception.ValidationException;
+import org.example.model.Expense;
+import org.example.model.ExpenseQuery;
+import org.example.model.ExpenseSummary;
+import org.example.model.SimpleExpense;
+import org.example.model.User;
+import org.example.repository.ExpenseRepository;
+import org.example.service.ExpenseFileService;
+import org.example.service.UserStorageService;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Headless JSON API over the repositories, bound to localhost. Every request runs on its own
+ * virtual thread. Each ledger has its own lock and cached repository, keyed by csvId, so
+ * requests for different users never wait on each other; requests for the same user are
+ * serialized, since a repository and its cached ledger are not thread-safe. At most
+ * {@code -Dexpense.server.cachedLedgers} (default 1024) repositories are kept; past that the
+ * least recently used idle ones are dropped. New expenses go through the ledger's group-commit
+ * writer, so posts that arrive together are written, and forced per
+ * {@code -Dexpense.write.durability}, as one batch.
+ * <pre>
+ * POST   /api/register       {name, username, password}  -> {userId, csvId}
+ * POST   /api/login          {username, password}        -> {token}
+ * POST   /api/logout
+ * GET    /api/expenses       ?category=a,b &amp;from= &amp;to= (yyyy-MM-dd) &amp;min= &amp;max= &amp;sort=date|amount[_descending] &amp;limit=
+ * POST   /api/expenses       {category, amount, date}
+ * GET    /api/expenses/{id}
+ * PUT    /api/expenses/{id}  {category, amount, date}
+ * DELETE /api/expenses/{id}
+ * GET    /api/summary        ?from=&amp;to= adds the total for that range
+ * </pre>
+ * Everything except register and login needs {@code Authorization: Bearer <token>}.
+ */
+public class ExpenseServer {
+    private static final int CACHED_LEDGERS = Integer.getInteger("expense.server.cachedLedgers", 1024);
+
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+    private final UserStorageService userStorageService;
+    private final ExpenseFileService expenseFileService;
+    private final Map<String, User> sessions = new ConcurrentHashMap<>();
+    // Access-ordered, so iteration starts at the least recently used ledger; guarded by itself
+    private final LinkedHashMap<String, Ledger> ledgers = new LinkedHashMap<>(16, 0.75f, true);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public ExpenseServer(UserStorageService userStorageService, ExpenseFileService expenseFileService) {
+        this.userStorageService = userStorageService;
+        this.expenseFileService = expenseFileService;
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/register", exchange -> handle(exchange, this::register));
+        server.createContext("/api/login", exchange -> handle(exchange, this::login));
+        server.createContext("/api/logout", exchange -> handle(exchange, this::logout));
+        server.createContext("/api/expenses", exchange -> handle(exchange, this::expenses));
+        server.createContext("/api/summary", exchange -> handle(exchange, this::summary));
+        server.start();
+        System.out.println("Expense server listening on http://localhost:" + server.getAddress().getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.close();
+            expenseFileService.closeWriters();
+        }
+        stopped.countDown();
+    }
+
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    // ---------- Endpoints ----------
+
+    private Object register(HttpExchange exchange) throws Exception {
+        requireMethod(exchange, "POST");
+        JsonObject body = readBody(exchange);
+        // The storage service assigns the real csvId, as in UserMenu
+        userStorageService.register(new User(string(body, "name"), string(body, "username"), string(body, "password"), "TEMP_CSV_ID"));
+        User registered = userStorageService.login(string(body, "username"), string(body, "password"));
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("userId", registered.getUserId());
+        response.put("csvId", registered.getCsvId());
+        exchange.sendResponseHeaders(201, 0);
+        return response;
+    }
+
+    private Object login(HttpExchange exchange) throws Exception {
+        requireMethod(exchange, "POST");
+        JsonObject body = readBody(exchange);
+        User user = userStorageService.login(string(body, "username"), string(body, "password"));
+        String token = UUID.randomUUID().toString();
+        sessions.put(token, user);
+        return Map.of("token", token);
+    }
+
+    private Object logout(HttpExchange exchange) throws Exception {
+        requireMethod(exchange, "POST");
+        authenticate(exchange);
+        sessions.remove(bearerToken(exchange));
+        return Map.of();
+    }
+
+    private Object expenses(HttpExchange exchange) throws Exception {
+        User user = authenticate(exchange);
+        String path = exchange.getRequestURI().getPath();
+        String expenseId = path.length() > "/api/expenses/".length() ? path.substring("/api/expenses/".length()) : null;
+        String method = exchange.getRequestMethod();
+
+        if (expenseId == null) {
+            if (method.equals("GET")) {
+                ExpenseQuery query = expenseQuery(query(exchange));
+                return withLedger(user, repository -> {
+                    List<Expense> expenses = repository.find(query);
+                    List<Map<String, Object>> response = new ArrayList<>(expenses.size());
+                    expenses.forEach(expense -> response.add(toJson(expense)));
+                    return response;
+                });
+            }
+            requireMethod(exchange, "POST");
+            JsonObject body = readBody(exchange);
+            Expense expense = new SimpleExpense(user.getUserId(), string(body, "category"), amount(body), date(string(body, "date")));
+            // Waited for outside the ledger lock, so concurrent posts for one user share a group commit
+            CompletableFuture<?> written = (CompletableFuture<?>) withLedger(user, repository -> repository.addExpenseAsync(expense));
+            try {
+                written.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+            exchange.sendResponseHeaders(201, 0);
+            return toJson(expense);
+        }
+
+        switch (method) {
+            case "GET":
+                return withLedger(user, repository -> toJson(repository.getExpenseById(expenseId)));
+            case "PUT": {
+                JsonObject body = readBody(exchange);
+                Expense expense = new SimpleExpense(expenseId, user.getUserId(), string(body, "category"), amount(body),
+                        date(string(body, "date")));
+                withLedger(user, repository -> {
+                    repository.updateExpense(expenseId, expense);
+                    return null;
+                });
+                return toJson(expense);
+            }
+            case "DELETE":
+                withLedger(user, repository -> {
+                    repository.deleteExpense(expenseId);
+                    return null;
+                });
+                return Map.of();
+            default:
+                throw new HttpError(405, "Method not allowed");
+        }
+    }
+
+    private Object summary(HttpExchange exchange) throws Exception {
+        requireMethod(exchange, "GET");
+        User user = authenticate(exchange);
+        Map<String, String> query = query(exchange);
+        return withLedger(user, repository -> {
+            ExpenseSummary summary = repository.getSummary();
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("total", summary.getTotal());
+            response.put("count", summary.getCount());
+            if (!summary.isEmpty()) {
+                response.put("min", summary.getMin());
+                response.put("max", summary.getMax());
+            }
+            List<Map<String, Object>> categories = new ArrayList<>();
+            summary.getCategories().forEach(category -> {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("category", category.getCategory());
+                entry.put("total", category.getTotal());
+                entry.put("count", category.getCount());
+                entry.put("min", category.getMin());
+                entry.put("max", category.getMax());
+                entry.put("percentage", summary.getPercentage(category));
+                categories.add(entry);
+            });
+            response.put("categories", categories);
+            if (query.containsKey("from") && query.containsKey("to")) {
+                response.put("rangeTotal", repository.getTotalExpensesByDateRange(date(query.get("from")), date(query.get("to"))));
+            }
+            return response;
+        });
+    }
+
+    // ---------- Ledger access ----------
+
+    private interface LedgerAction {
+        Object apply(ExpenseRepository repository) throws Exception;
+    }
+
+    private static final class Ledger {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ExpenseRepository repository;
+        private int active; // requests holding or waiting for the lock, guarded by ledgers
+
+        private Ledger(ExpenseRepository repository) {
+            this.repository = repository;
+        }
+    }
+
+    private Object withLedger(User user, LedgerAction action) throws Exception {
+        Ledger ledger;
+        synchronized (ledgers) {
+            ledger = ledgers.computeIfAbsent(user.getCsvId(),
+                    id -> new Ledger(new ExpenseRepository(expenseFileService, id, user.getUserId())));
+            ledger.active++;
+            evictIdleLedgers();
+        }
+        ledger.lock.lock();
+        try {
+            return action.apply(ledger.repository);
+        } finally {
+            ledger.lock.unlock();
+            synchronized (ledgers) {
+                ledger.active--;
+            }
+        }
+    }
+
+    // A ledger in use is never dropped, so two requests for one user always share a lock
+    private void evictIdleLedgers() {
+        Iterator<Ledger> eldest = ledgers.values().iterator();
+        while (ledgers.size() > CACHED_LEDGERS && eldest.hasNext()) {
+            if (eldest.next().active == 0) {
+                eldest.remove();
+            }
+        }
+    }
+
+    // ---------- Request handling ----------
+
+    private interface Endpoint {
+        Object handle(HttpExchange exchange) throws Exception;
+    }
+
+    private static class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        try (exchange) {
+            Object response;
+            int status;
+            try {
+                response = endpoint.handle(exchange);
+                status = 200;
+            } catch (HttpError e) {
+                response = Map.of("error", e.getMessage());
+                status = e.status;
+            } catch (ValidationException | JsonParseException | DateTimeParseException | IllegalArgumentException e) {
+                response = Map.of("error", e.getMessage());
+                status = 400;
+            } catch (UserNotFoundException e) {
+                response = Map.of("error", e.getMessage());
+                status = 401;
+            } catch (ExpenseNotFoundException e) {
+                response = Map.of("error", e.getMessage());
+                status = 404;
+            } catch (DuplicateUserException e) {
+                response = Map.of("error", e.getMessage());
+                status = 409;
+            } catch (Exception e) {
+                System.err.println("Error handling " + exchange.getRequestURI() + ": " + e.getMessage());
+                response = Map.of("error", "Internal server error");
+                status = 500;
+            }
+
+            byte[] bytes = gson.toJson(response).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            if (exchange.getResponseCode() == -1) {
+                exchange.sendResponseHeaders(status, bytes.length);
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private User authenticate(HttpExchange exchange) throws HttpError {
+        String token = bearerToken(exchange);
+        User user = token == null ? null : sessions.get(token);
+        if (user == null) {
+            throw new HttpError(401, "Missing or unknown session token");
+        }
+        return user;
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring("Bearer ".length()).trim() : null;
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) throws HttpError {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new HttpError(405, "Method not allowed");
+        }
+    }
+
+    private static JsonObject readBody(HttpExchange exchange) throws IOException, HttpError {
+        JsonElement body = JsonParser.parseReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        if (!body.isJsonObject()) {
+            throw new HttpError(400, "Request body must be a JSON object");
+        }
+        return body.getAsJsonObject();
+    }
+
+    private static String string(JsonObject body, String field) throws HttpError {
+        JsonElement value = body.get(field);
+        if (value == null || value.isJsonNull()) {
+            throw new HttpError(400, "Missing field: " + field);
+        }
+        return value.getAsString();
+    }
+
+    private static double amount(JsonObject body) throws HttpError {
+        try {
+            return Double.parseDouble(string(body, "amount"));
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Invalid amount: " + body.get("amount"));
+        }
+    }
+
+    private static LocalDate date(String value) {
+        return LocalDate.parse(value);
+    }
+
+    // Unknown sort names and malformed numbers or dates are answered with a 400, like bad bodies
+    private static ExpenseQuery expenseQuery(Map<String, String> parameters) {
+        ExpenseQuery.Builder query = ExpenseQuery.builder();
+        if (parameters.containsKey("category")) {
+            // Categories cannot contain commas, so a list needs no escaping
+            for (String category : parameters.get("category").split(",")) {
+                query.category(category.trim());
+            }
+        }
+        if (parameters.containsKey("from")) query.from(date(parameters.get("from")));
+        if (parameters.containsKey("to")) query.to(date(parameters.get("to")));
+        if (parameters.containsKey("min")) query.minAmount(Double.parseDouble(parameters.get("min")));
+        if (parameters.containsKey("max")) query.maxAmount(Double.parseDouble(parameters.get("max")));
+        if (parameters.containsKey("sort")) {
+            query.sortBy(ExpenseQuery.Sort.valueOf(parameters.get("sort").toUpperCase()));
+        }
+        if (parameters.containsKey("limit")) query.limit(Integer.parseInt(parameters.get("limit")));
+        return query.build();
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static Map<String, Object> toJson(Expense expense) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", expense.getExpenseId());
+        json.put("category", expense.getCategory());
+        json.put("amount", expense.getAmount());
+        json.put("date", expense.getDate().toString());
+        return json;
+    }
+}
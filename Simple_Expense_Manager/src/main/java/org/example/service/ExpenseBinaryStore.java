@@ -0,0 +1,553 @@
+package org.example.service;
+
+import org.example.metrics.Metrics;
+import org.example.model.Expense;
+import org.example.model.ExpenseIdCodec;
+import org.example.model.ExpenseLedger;
+import org.example.model.SimpleExpense;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the binary ledger format:
+ * <pre>
+ * header   32 bytes  magic "SEMB", version (short), reserved (short), record count (int),
+ *                    trailer offset (long), reserved (12 bytes)
+ * records  24 bytes each: id code (long), amount in cents (long), epoch day (int),
+ *                    category id (short), flags (short, bit 0 = deleted)
+ * trailer  category dictionary: count (int), then length-prefixed UTF-8 names
+ *          string table: count (int), then (record index (int), length-prefixed UTF-8 id)
+ *          for ids that ExpenseIdCodec cannot pack
+ * </pre>
+ * Records are fixed width, so the whole file is read with one bulk read (or mapped), updates and
+ * deletes are positional writes of a single record, and an append only rewrites the small trailer
+ * and the header. The live trailer is never overwritten in place: a new one is written where
+ * nothing live is, forced, and only then named by the header, so a failed or interrupted write
+ * leaves the previous state readable.
+ */
+class ExpenseBinaryStore {
+    static final int MAGIC = 0x53454D42; // "SEMB"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 24;
+
+    private static final int FLAG_DELETED = 1;
+    private static final long MAP_THRESHOLD = 16L * 1024 * 1024;
+    private static final int MAX_RECORDS_PER_MAPPING = (1 << 30) / RECORD_SIZE;
+
+    private ExpenseBinaryStore() {
+    }
+
+    static ExpenseLedger read(Path path, String userId) throws IOException {
+        ExpenseLedger ledger = new ExpenseLedger(userId);
+        if (!Files.exists(path)) {
+            return ledger;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            Trailer trailer = readTrailer(channel, header);
+            for (String name : trailer.categories) {
+                ledger.internCategory(name);
+            }
+
+            long recordsSize = (long) header.recordCount * RECORD_SIZE;
+            if (recordsSize < MAP_THRESHOLD) {
+                ByteBuffer records = ByteBuffer.allocate((int) recordsSize);
+                readFully(channel, records, HEADER_SIZE);
+                readRecords(records, 0, header.recordCount, trailer, ledger);
+            } else {
+                for (int first = 0; first < header.recordCount; first += MAX_RECORDS_PER_MAPPING) {
+                    int count = Math.min(MAX_RECORDS_PER_MAPPING, header.recordCount - first);
+                    ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY,
+                            HEADER_SIZE + (long) first * RECORD_SIZE, (long) count * RECORD_SIZE);
+                    readRecords(records, first, count, trailer, ledger);
+                }
+            }
+        }
+        Metrics.rowsParsed(ledger.size());
+        return ledger;
+    }
+
+    /**
+     * Streams the live records to the sink a block at a time, so memory stays constant however
+     * large the file is. The file's categories are interned into {@code dictionary} first, which
+     * must be empty so that its category ids match the file's.
+     */
+    static void scan(Path path, ExpenseLedger dictionary, ExpenseCsvParser.RowSink sink) throws IOException {
+        scan(path, dictionary, null, sink);
+    }
+
+    /**
+     * Like {@link #scan(Path, ExpenseLedger, ExpenseCsvParser.RowSink)}, passing only the records
+     * the filter accepts, which may be null. The category is checked before anything else is read
+     * from a record, and the scan ends once the filter's limit is reached.
+     */
+    static void scan(Path path, ExpenseLedger dictionary, ExpenseScanFilter filter, ExpenseCsvParser.RowSink sink) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            Trailer trailer = readTrailer(channel, header);
+            for (String name : trailer.categories) {
+                dictionary.internCategory(name);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            long rows = 0;
+            for (int first = 0; first < header.recordCount && (filter == null || !filter.isDone()); first += 4096) {
+                int count = Math.min(4096, header.recordCount - first);
+                buffer.clear().limit(count * RECORD_SIZE);
+                readFully(channel, buffer, HEADER_SIZE + (long) first * RECORD_SIZE);
+                for (int i = 0; i < count; i++) {
+                    int offset = i * RECORD_SIZE;
+                    if ((buffer.getShort(offset + 22) & FLAG_DELETED) != 0) continue;
+                    int categoryId = buffer.getShort(offset + 20);
+                    long cents = buffer.getLong(offset + 8);
+                    int epochDay = buffer.getInt(offset + 16);
+                    if (filter != null && (!filter.acceptsCategory(categoryId) || !filter.accepts(cents, epochDay))) continue;
+
+                    rows++;
+                    long idCode = buffer.getLong(offset);
+                    String expenseId = idCode == ExpenseIdCodec.IRREGULAR ? trailer.irregularIds.get(first + i) : null;
+                    sink.row(idCode, expenseId, categoryId, cents, epochDay);
+                }
+            }
+            Metrics.rowsParsed(rows);
+        }
+    }
+
+    private static void readRecords(ByteBuffer records, int firstRecord, int count, Trailer trailer, ExpenseLedger ledger) {
+        for (int i = 0; i < count; i++) {
+            int offset = i * RECORD_SIZE;
+            if ((records.getShort(offset + 22) & FLAG_DELETED) != 0) continue;
+
+            long idCode = records.getLong(offset);
+            String expenseId = idCode == ExpenseIdCodec.IRREGULAR ? trailer.irregularIds.get(firstRecord + i) : null;
+            ledger.add(idCode, expenseId, records.getShort(offset + 20), records.getLong(offset + 8), records.getInt(offset + 16));
+        }
+    }
+
+    /**
+     * Writes the whole ledger to a temporary file, forces it to disk and swaps it in.
+     */
+    static void write(Path path, ExpenseLedger ledger) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Trailer trailer = new Trailer();
+        for (int c = 0; c < ledger.getCategoryCount(); c++) {
+            trailer.categories.add(ledger.getCategoryName(c));
+        }
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            long position = HEADER_SIZE;
+            for (int row = 0; row < ledger.size(); row++) {
+                String expenseId = ledger.getExpenseId(row);
+                long idCode = ExpenseIdCodec.encode(expenseId);
+                if (idCode == ExpenseIdCodec.IRREGULAR) {
+                    trailer.irregularIds.put(row, expenseId);
+                }
+                putRecord(buffer, idCode, ledger.getAmountCents(row), ledger.getEpochDay(row), ledger.getCategoryId(row), 0);
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    position += writeFully(channel, buffer, position);
+                    buffer.clear();
+                }
+            }
+            buffer.flip();
+            position += writeFully(channel, buffer, position);
+
+            writeFully(channel, encodeTrailer(trailer), position);
+            writeHeader(channel, new Header(ledger.size(), position));
+            // On disk before the rename, or a crash could leave the ledger empty
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void append(Path path, Expense expense) throws IOException {
+        appendAll(path, List.of(expense), expense.getUserId(), false);
+    }
+
+    /**
+     * Appends every expense, writing the records in large blocks after the last one. The trailer
+     * they would overwrite is first replaced by a new one further on, so it is dead before the
+     * records reach it. With {@code force} set the file is on disk when this returns. Returns the
+     * number appended.
+     */
+    static int appendAll(Path path, Iterable<? extends Expense> expenses, String userId, boolean force) throws IOException {
+        if (!Files.exists(path)) {
+            ExpenseLedger ledger = new ExpenseLedger(userId);
+            expenses.forEach(ledger::add);
+            write(path, ledger);
+            return ledger.size();
+        }
+        // Walked twice below, once for the trailer and once for the records, so a single-pass
+        // iterable is read into a list first
+        List<Expense> batch = new ArrayList<>();
+        expenses.forEach(batch::add);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Header header = readHeader(channel);
+            Trailer trailer = readTrailer(channel, header);
+            Map<String, Integer> categoryIds = new HashMap<>();
+            for (int c = 0; c < trailer.categories.size(); c++) {
+                categoryIds.putIfAbsent(trailer.categories.get(c), c);
+            }
+
+            // The new trailer is complete before any record is written
+            int recordCount = header.recordCount;
+            for (Expense expense : batch) {
+                if (!categoryIds.containsKey(expense.getCategory())) {
+                    categoryIds.put(expense.getCategory(), trailer.categoryId(expense.getCategory()));
+                }
+                if (ExpenseIdCodec.encode(expense.getExpenseId()) == ExpenseIdCodec.IRREGULAR) {
+                    trailer.irregularIds.put(recordCount, expense.getExpenseId());
+                }
+                recordCount++;
+            }
+            if (recordCount == header.recordCount) {
+                return 0;
+            }
+
+            long recordsEnd = HEADER_SIZE + (long) recordCount * RECORD_SIZE;
+            boolean overlaps = recordsEnd > header.trailerOffset;
+            if (overlaps) {
+                header = commitTrailer(channel, header, header.recordCount, recordsEnd, trailer);
+                channel.force(false);
+            }
+
+            long position = HEADER_SIZE + (long) header.recordCount * RECORD_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            for (Expense expense : batch) {
+                long idCode = ExpenseIdCodec.encode(expense.getExpenseId());
+                putRecord(buffer, idCode, expense.getAmountCents(), expense.getDate().toEpochDay(),
+                        categoryIds.get(expense.getCategory()), 0);
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    position += writeFully(channel, buffer, position);
+                    buffer.clear();
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer, position);
+
+            if (overlaps) {
+                channel.force(false);
+                writeHeader(channel, new Header(recordCount, header.trailerOffset));
+            } else {
+                commitTrailer(channel, header, recordCount, recordsEnd, trailer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+            return recordCount - header.recordCount;
+        }
+    }
+
+    /**
+     * Overwrites the record holding the expense. {@code recordHint} is where the caller expects
+     * it (from the id index, or -1); it is checked before use and the id column is scanned when
+     * it is wrong. Returns false when no live record has that id.
+     */
+    static boolean update(Path path, Expense expense, int recordHint) throws IOException {
+        return rewriteRecord(path, expense.getExpenseId(), expense, recordHint);
+    }
+
+    static boolean delete(Path path, String expenseId, int recordHint) throws IOException {
+        return rewriteRecord(path, expenseId, null, recordHint);
+    }
+
+    private static boolean rewriteRecord(Path path, String expenseId, Expense replacement, int recordHint) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Header header = readHeader(channel);
+            Trailer trailer = readTrailer(channel, header);
+            int record = holdsId(channel, header, trailer, recordHint, expenseId)
+                    ? recordHint
+                    : findRecord(channel, header, trailer, expenseId);
+            if (record < 0) {
+                return false;
+            }
+
+            long position = HEADER_SIZE + (long) record * RECORD_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+            if (replacement == null) {
+                buffer.putShort((short) FLAG_DELETED).flip();
+                writeFully(channel, buffer, position + 22);
+                return true;
+            }
+
+            int categoryCount = trailer.categories.size();
+            int categoryId = trailer.categoryId(replacement.getCategory());
+            if (trailer.categories.size() != categoryCount) {
+                // The record may only name the new category once a trailer holding it is live
+                commitTrailer(channel, header, header.recordCount, HEADER_SIZE + (long) header.recordCount * RECORD_SIZE, trailer);
+                channel.force(false);
+            }
+            putRecord(buffer, ExpenseIdCodec.encode(expenseId), replacement.getAmountCents(),
+                    replacement.getDate().toEpochDay(), categoryId, 0);
+            buffer.flip();
+            writeFully(channel, buffer, position);
+            return true;
+        }
+    }
+
+    /**
+     * Reads a single record, or returns null when it is deleted or out of range.
+     */
+    static Expense readRecord(Path path, int record, String userId) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            if (record < 0 || record >= header.recordCount) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+            readFully(channel, buffer, HEADER_SIZE + (long) record * RECORD_SIZE);
+            if ((buffer.getShort(22) & FLAG_DELETED) != 0) {
+                return null;
+            }
+
+            Trailer trailer = readTrailer(channel, header);
+            long idCode = buffer.getLong(0);
+            String expenseId = idCode == ExpenseIdCodec.IRREGULAR ? trailer.irregularIds.get(record) : ExpenseIdCodec.decode(idCode);
+            return SimpleExpense.fromStorageCents(expenseId, userId, trailer.categories.get(buffer.getShort(20)),
+                    buffer.getLong(8), LocalDate.ofEpochDay(buffer.getInt(16)));
+        }
+    }
+
+    /**
+     * The id stored in a record, deleted or not, or null when the record is out of range.
+     */
+    static String readId(Path path, int record) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            if (record < 0 || record >= header.recordCount) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            readFully(channel, buffer, HEADER_SIZE + (long) record * RECORD_SIZE);
+            long idCode = buffer.getLong(0);
+            return idCode == ExpenseIdCodec.IRREGULAR ? readTrailer(channel, header).irregularIds.get(record) : ExpenseIdCodec.decode(idCode);
+        }
+    }
+
+    static int recordCount(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readHeader(channel).recordCount;
+        }
+    }
+
+    /**
+     * Reports the id key and record number of every live record from {@code from} on, for the
+     * id index. Returns the record count.
+     */
+    static long scanIds(Path path, long from, ExpenseIdIndex.RowVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            Trailer trailer = readTrailer(channel, header);
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            for (long first = from; first < header.recordCount; first += 4096) {
+                int count = (int) Math.min(4096, header.recordCount - first);
+                buffer.clear().limit(count * RECORD_SIZE);
+                readFully(channel, buffer, HEADER_SIZE + first * RECORD_SIZE);
+                for (int i = 0; i < count; i++) {
+                    int offset = i * RECORD_SIZE;
+                    if ((buffer.getShort(offset + 22) & FLAG_DELETED) != 0) continue;
+                    long idCode = buffer.getLong(offset);
+                    long key = idCode == ExpenseIdCodec.IRREGULAR
+                            ? ExpenseIdIndex.key(trailer.irregularIds.get((int) (first + i)))
+                            : idCode;
+                    visitor.row(key, first + i);
+                }
+            }
+            return header.recordCount;
+        }
+    }
+
+    private static boolean holdsId(FileChannel channel, Header header, Trailer trailer, int record, String expenseId) throws IOException {
+        if (record < 0 || record >= header.recordCount) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        readFully(channel, buffer, HEADER_SIZE + (long) record * RECORD_SIZE);
+        long idCode = ExpenseIdCodec.encode(expenseId);
+        return buffer.getLong(0) == idCode && (buffer.getShort(22) & FLAG_DELETED) == 0
+                && (idCode != ExpenseIdCodec.IRREGULAR || expenseId.equals(trailer.irregularIds.get(record)));
+    }
+
+    // Scans the id column for the first live record with this id
+    private static int findRecord(FileChannel channel, Header header, Trailer trailer, String expenseId) throws IOException {
+        long idCode = ExpenseIdCodec.encode(expenseId);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        for (int first = 0; first < header.recordCount; first += 4096) {
+            int count = Math.min(4096, header.recordCount - first);
+            buffer.clear().limit(count * RECORD_SIZE);
+            readFully(channel, buffer, HEADER_SIZE + (long) first * RECORD_SIZE);
+            for (int i = 0; i < count; i++) {
+                int offset = i * RECORD_SIZE;
+                if (buffer.getLong(offset) != idCode || (buffer.getShort(offset + 22) & FLAG_DELETED) != 0) continue;
+                if (idCode != ExpenseIdCodec.IRREGULAR || expenseId.equals(trailer.irregularIds.get(first + i))) {
+                    return first + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void putRecord(ByteBuffer buffer, long idCode, long cents, long epochDay, int categoryId, int flags) {
+        buffer.putLong(idCode);
+        buffer.putLong(cents);
+        buffer.putInt((int) epochDay);
+        buffer.putShort((short) categoryId);
+        buffer.putShort((short) flags);
+    }
+
+    // ---------- Header and trailer ----------
+
+    private record Header(int recordCount, long trailerOffset) {
+    }
+
+    private static class Trailer {
+        final List<String> categories = new ArrayList<>();
+        final Map<Integer, String> irregularIds = new HashMap<>();
+
+        int categoryId(String category) {
+            int id = categories.indexOf(category);
+            if (id < 0) {
+                categories.add(category);
+                id = categories.size() - 1;
+            }
+            return id;
+        }
+    }
+
+    private static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, buffer, 0);
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary expense ledger");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IOException("Unsupported binary ledger version " + buffer.getShort(4));
+        }
+        return new Header(buffer.getInt(8), buffer.getLong(12));
+    }
+
+    private static void writeHeader(FileChannel channel, Header header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+                .putInt(header.recordCount).putLong(header.trailerOffset);
+        buffer.clear();
+        writeFully(channel, buffer, 0);
+    }
+
+    private static Trailer readTrailer(FileChannel channel, Header header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - header.trailerOffset));
+        readFully(channel, buffer, header.trailerOffset);
+        buffer.flip();
+
+        Trailer trailer = new Trailer();
+        int categoryCount = buffer.getInt();
+        for (int i = 0; i < categoryCount; i++) {
+            trailer.categories.add(getString(buffer));
+        }
+        int idCount = buffer.getInt();
+        for (int i = 0; i < idCount; i++) {
+            int record = buffer.getInt();
+            trailer.irregularIds.put(record, getString(buffer));
+        }
+        return trailer;
+    }
+
+    /**
+     * Writes the trailer where it overlaps neither the live one nor the records up to
+     * {@code recordsEnd}, forces it, and then points the header at it for {@code recordCount}
+     * records. A crash at any point leaves a header naming a complete trailer. Space the old
+     * trailer held past the new one is cut off once the header is on disk.
+     */
+    private static Header commitTrailer(FileChannel channel, Header live, int recordCount, long recordsEnd, Trailer trailer) throws IOException {
+        ByteBuffer bytes = encodeTrailer(trailer);
+        long end = channel.size();
+        long position = recordsEnd + bytes.remaining() <= live.trailerOffset ? recordsEnd : Math.max(recordsEnd, end);
+        long trailerEnd = position + writeFully(channel, bytes, position);
+        channel.force(false);
+
+        Header header = new Header(recordCount, position);
+        writeHeader(channel, header);
+        if (trailerEnd < end) {
+            channel.force(false);
+            channel.truncate(trailerEnd);
+        }
+        return header;
+    }
+
+    private static ByteBuffer encodeTrailer(Trailer trailer) {
+        List<byte[]> categories = new ArrayList<>();
+        int size = 8;
+        for (String category : trailer.categories) {
+            byte[] bytes = category.getBytes(StandardCharsets.UTF_8);
+            categories.add(bytes);
+            size += 2 + bytes.length;
+        }
+        Map<Integer, byte[]> ids = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : trailer.irregularIds.entrySet()) {
+            byte[] bytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            ids.put(entry.getKey(), bytes);
+            size += 6 + bytes.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(categories.size());
+        for (byte[] bytes : categories) {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+        buffer.putInt(ids.size());
+        for (Map.Entry<Integer, byte[]> entry : ids.entrySet()) {
+            buffer.putInt(entry.getKey()).putShort((short) entry.getValue().length).put(entry.getValue());
+        }
+        return buffer.flip();
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of binary ledger");
+            }
+            position += read;
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,351 @@
+package org.example.service;
+
+import org.example.exception.ValidationException;
+import org.example.metrics.Metrics;
+import org.example.model.Expense;
+import org.example.model.ExpenseIdCodec;
+import org.example.model.ExpenseLedger;
+import org.example.model.Money;
+import org.example.model.SimpleExpense;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Parses ledger rows ({@code ExpenseID,UserID,Category,Amount,DateTime}) straight from bytes into
+ * an {@link ExpenseLedger}. Fields are located by scanning for commas in place, ids are packed with
+ * {@link ExpenseIdCodec}, amounts are read as fixed-point cents and dates as epoch days, so a
+ * well-formed row allocates nothing. Rows can also be handed to a {@link RowSink} instead, with the
+ * ledger serving only as the category dictionary, and narrowed by an {@link ExpenseScanFilter}
+ * that turns rows away before their amount and id are parsed. Not thread-safe: use one parser per
+ * thread.
+ */
+class ExpenseCsvParser {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_AMOUNT_CENTS = Money.MAX_CENTS;
+
+    /**
+     * Receives each parsed row; the arguments mirror {@link ExpenseLedger#add(long, String, int, long, int)}.
+     */
+    interface RowSink {
+        void row(long idCode, String expenseId, int categoryId, long cents, int epochDay);
+    }
+
+    private final ExpenseLedger ledger;
+    private final RowSink sink;
+    private final ExpenseScanFilter filter;
+    private byte[][] categoryBytes = new byte[8][];
+    private int[] categoryIds = new int[8];
+    private int categoryCount;
+    private byte[] scratch = new byte[64];
+
+    // Fields of the row parsed last
+    private long idCode;
+    private String irregularId;
+    private int categoryId;
+    private long cents;
+    private int epochDay;
+
+    ExpenseCsvParser(ExpenseLedger ledger) {
+        this(ledger, ledger::add);
+    }
+
+    ExpenseCsvParser(ExpenseLedger dictionary, RowSink sink) {
+        this(dictionary, null, sink);
+    }
+
+    /**
+     * Passes only the rows the filter accepts, which may be null, to the sink.
+     */
+    ExpenseCsvParser(ExpenseLedger dictionary, ExpenseScanFilter filter, RowSink sink) {
+        this.ledger = dictionary;
+        this.filter = filter;
+        this.sink = sink;
+    }
+
+    /**
+     * Passes every row of the channel to the sink, skipping the header line when asked to.
+     * Rows that fail to parse are reported on System.err and skipped, like the rest of the loader does.
+     */
+    void parse(ReadableByteChannel channel, boolean skipHeader) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        boolean headerPending = skipHeader;
+        boolean eof = false;
+        long rows = 0;
+
+        while (!eof && (filter == null || !filter.isDone())) {
+            eof = channel.read(buffer) < 0;
+            int limit = buffer.position();
+            int lineStart = 0;
+
+            for (int i = 0; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    if (headerPending) {
+                        headerPending = false;
+                    } else if (parseInto(buffer, lineStart, i)) {
+                        rows++;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+
+            if (eof) {
+                if (lineStart < limit && !headerPending && parseInto(buffer, lineStart, limit)) {
+                    rows++;
+                }
+            } else if (lineStart == 0 && limit == buffer.capacity()) {
+                // A single line longer than the buffer: grow and keep reading
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.position(lineStart);
+                buffer.limit(limit);
+                buffer.compact();
+            }
+        }
+        Metrics.rowsParsed(rows);
+    }
+
+    /**
+     * Passes the rows between {@code start} (inclusive) and {@code end} (exclusive) to the sink.
+     * The range must begin at the start of a line.
+     */
+    void parseLines(ByteBuffer buffer, int start, int end) {
+        int lineStart = start;
+        long rows = 0;
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                if (parseInto(buffer, lineStart, i)) rows++;
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < end && parseInto(buffer, lineStart, end)) {
+            rows++;
+        }
+        Metrics.rowsParsed(rows);
+    }
+
+    // Returns whether a row reached the sink
+    private boolean parseInto(ByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') end--;
+        if (isBlank(buffer, start, end)) return false;
+
+        boolean parsed;
+        try {
+            parsed = parseFields(buffer, start, end);
+        } catch (Exception e) {
+            System.err.println("Error parsing expense line: " + decode(buffer, start, end) + " - " + e.getMessage());
+            return false;
+        }
+        // Outside the try, so a failing sink is not mistaken for a bad row
+        if (parsed) {
+            sink.row(idCode, irregularId, categoryId, cents, epochDay);
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a single row into an Expense owned by the ledger's user. Returns null when the row
+     * has fewer than five columns or the filter turns it away.
+     */
+    Expense parseLine(String line) throws ValidationException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        if (!parseFields(ByteBuffer.wrap(bytes), 0, bytes.length)) {
+            return null;
+        }
+        String expenseId = idCode == ExpenseIdCodec.IRREGULAR ? irregularId : ExpenseIdCodec.decode(idCode);
+        return SimpleExpense.fromStorageCents(expenseId, ledger.getUserId(), ledger.getCategoryName(categoryId),
+                cents, LocalDate.ofEpochDay(epochDay));
+    }
+
+    private boolean parseFields(ByteBuffer buffer, int start, int end) throws ValidationException {
+        int idEnd = indexOf(buffer, ',', start, end);
+        if (idEnd < 0) return false;
+        int userEnd = indexOf(buffer, ',', idEnd + 1, end);
+        if (userEnd < 0) return false;
+        int categoryEnd = indexOf(buffer, ',', userEnd + 1, end);
+        if (categoryEnd < 0) return false;
+        int amountEnd = indexOf(buffer, ',', categoryEnd + 1, end);
+        if (amountEnd < 0) return false;
+        // Older files carried a trailing description column
+        int dateEnd = indexOf(buffer, ',', amountEnd + 1, end);
+        if (dateEnd < 0) dateEnd = end;
+
+        categoryId = category(buffer, userEnd + 1, categoryEnd);
+        if (filter != null && (!filter.acceptsCategory(categoryId) || !filter.acceptsDate(buffer, amountEnd + 1, dateEnd))) {
+            return false;
+        }
+        if (ledger.getCategoryName(categoryId).trim().isEmpty()) {
+            throw new ValidationException("Category cannot be empty");
+        }
+
+        cents = parseCents(buffer, categoryEnd + 1, amountEnd);
+        if (cents <= 0) {
+            throw new ValidationException("Amount must be greater than 0");
+        }
+        if (cents > MAX_AMOUNT_CENTS) {
+            throw new ValidationException("Amount cannot exceed 1,000,000");
+        }
+
+        epochDay = (int) parseEpochDay(buffer, amountEnd + 1, dateEnd);
+        if (filter != null && !filter.accepts(cents, epochDay)) {
+            return false;
+        }
+        idCode = ExpenseIdCodec.encode(buffer, start, idEnd);
+        irregularId = idCode == ExpenseIdCodec.IRREGULAR ? decode(buffer, start, idEnd) : null;
+        return true;
+    }
+
+    /**
+     * Parses a plain decimal with at most two fraction digits into cents. Anything else
+     * (exponents, signs, extra precision) goes through Double.parseDouble.
+     */
+    private long parseCents(ByteBuffer buffer, int start, int end) throws ValidationException {
+        long whole = 0;
+        int i = start;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') break;
+            whole = whole * 10 + (b - '0');
+            if (whole > MAX_AMOUNT_CENTS) break;
+        }
+        if (i == end && i > start) {
+            return whole * 100;
+        }
+        if (i > start && buffer.get(i) == '.' && end - i - 1 <= 2 && whole <= MAX_AMOUNT_CENTS) {
+            long fraction = 0;
+            int digits = 0;
+            for (int j = i + 1; j < end; j++, digits++) {
+                byte b = buffer.get(j);
+                if (b < '0' || b > '9') return parseCentsSlow(buffer, start, end);
+                fraction = fraction * 10 + (b - '0');
+            }
+            if (digits == 1) fraction *= 10;
+            return whole * 100 + fraction;
+        }
+        return parseCentsSlow(buffer, start, end);
+    }
+
+    private long parseCentsSlow(ByteBuffer buffer, int start, int end) throws ValidationException {
+        String amount = decode(buffer, start, end);
+        try {
+            return Money.toCents(Double.parseDouble(amount));
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Invalid amount: " + amount);
+        }
+    }
+
+    /**
+     * Reads {@code yyyy-MM-dd}, optionally followed by a time of day ({@code yyyy-MM-dd HH:mm:ss}
+     * in early ledgers), and returns the epoch day. The time of day is ignored.
+     */
+    private long parseEpochDay(ByteBuffer buffer, int start, int end) {
+        if (end - start < 10 || buffer.get(start + 4) != '-' || buffer.get(start + 7) != '-'
+                || (end - start > 10 && buffer.get(start + 10) != ' ' && buffer.get(start + 10) != 'T')) {
+            throw new IllegalArgumentException("Invalid date '" + decode(buffer, start, end) + "'");
+        }
+        int year = digits(buffer, start, 4);
+        int month = digits(buffer, start + 5, 2);
+        int day = digits(buffer, start + 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            throw new IllegalArgumentException("Invalid date '" + decode(buffer, start, end) + "'");
+        }
+        return epochDay(year, month, day);
+    }
+
+    static long epochDay(int year, int month, int day) {
+        // Days from civil, proleptic Gregorian calendar
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static int digits(ByteBuffer buffer, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') return -1;
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    // Maps the category bytes to the ledger's dictionary id, decoding each distinct name once
+    private int category(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        for (int c = 0; c < categoryCount; c++) {
+            if (matches(categoryBytes[c], buffer, start, length)) {
+                return categoryIds[c];
+            }
+        }
+
+        if (categoryCount == categoryIds.length) {
+            categoryBytes = Arrays.copyOf(categoryBytes, categoryCount * 2);
+            categoryIds = Arrays.copyOf(categoryIds, categoryCount * 2);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(start, bytes);
+        categoryBytes[categoryCount] = bytes;
+        categoryIds[categoryCount] = ledger.internCategory(new String(bytes, StandardCharsets.UTF_8).intern());
+        return categoryIds[categoryCount++];
+    }
+
+    private static boolean matches(byte[] expected, ByteBuffer buffer, int start, int length) {
+        if (expected.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != buffer.get(start + i)) return false;
+        }
+        return true;
+    }
+
+    private String decode(ByteBuffer buffer, int start, int end) {
+        int length = end - start;
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(start, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(ByteBuffer buffer, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == c) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b != ' ' && b != '\t') return false;
+        }
+        return true;
+    }
+}
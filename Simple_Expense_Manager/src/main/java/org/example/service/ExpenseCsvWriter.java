@@ -0,0 +1,148 @@
+package org.example.service;
+
+import org.example.model.ExpenseIdCodec;
+import org.example.model.ExpenseLedger;
+import org.example.model.Money;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Formats ledger rows straight into a byte buffer, producing exactly what {@code Expense.toCSV()}
+ * would without building a String per row. Category names come from the dictionary ledger and
+ * are encoded once each. Write failures surface as {@link UncheckedIOException}, since rows
+ * arrive through {@link ExpenseCsvParser.RowSink} callbacks.
+ */
+class ExpenseCsvWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Longest id, user id or category we expect; longer fields are flushed through directly
+    private static final int MAX_ROW_SIZE = 1024;
+
+    private final OutputStream out;
+    private final ExpenseLedger dictionary;
+    private final byte[] userId;
+    private final byte[] lineSeparator;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    private byte[][] categories = new byte[8][];
+    private int cachedEpochDay = Integer.MIN_VALUE;
+    private final byte[] date = new byte[10];
+
+    ExpenseCsvWriter(OutputStream out, ExpenseLedger dictionary, String userId, String lineSeparator) {
+        this.out = out;
+        this.dictionary = dictionary;
+        this.userId = userId.getBytes(StandardCharsets.UTF_8);
+        this.lineSeparator = lineSeparator.getBytes(StandardCharsets.UTF_8);
+    }
+
+    void writeLine(String line) {
+        put(line.getBytes(StandardCharsets.UTF_8));
+        put(lineSeparator);
+    }
+
+    void writeRow(long idCode, String expenseId, int categoryId, long cents, int epochDay) {
+        if (position > BUFFER_SIZE - MAX_ROW_SIZE) {
+            flushBuffer();
+        }
+        if (idCode == ExpenseIdCodec.IRREGULAR) {
+            put(expenseId.getBytes(StandardCharsets.UTF_8));
+        } else {
+            putAscii(ExpenseIdCodec.decode(idCode));
+        }
+        put((byte) ',');
+        put(userId);
+        put((byte) ',');
+        put(category(categoryId));
+        put((byte) ',');
+        position = Money.writeCents(buffer, position, cents);
+        put((byte) ',');
+        put(date(epochDay));
+        put(lineSeparator);
+    }
+
+    private byte[] category(int categoryId) {
+        if (categoryId >= categories.length) {
+            categories = Arrays.copyOf(categories, Math.max(categoryId + 1, categories.length * 2));
+        }
+        byte[] bytes = categories[categoryId];
+        if (bytes == null) {
+            bytes = dictionary.getCategoryName(categoryId).getBytes(StandardCharsets.UTF_8);
+            categories[categoryId] = bytes;
+        }
+        return bytes;
+    }
+
+    // Rows of one ledger cluster by date, so most rows reuse the previous row's digits
+    private byte[] date(int epochDay) {
+        if (epochDay != cachedEpochDay) {
+            LocalDate day = LocalDate.ofEpochDay(epochDay);
+            if (day.getYear() < 0 || day.getYear() > 9999) {
+                throw new IllegalArgumentException("Date out of range: " + day);
+            }
+            putDigits(date, 0, day.getYear(), 4);
+            date[4] = '-';
+            putDigits(date, 5, day.getMonthValue(), 2);
+            date[7] = '-';
+            putDigits(date, 8, day.getDayOfMonth(), 2);
+            cachedEpochDay = epochDay;
+        }
+        return date;
+    }
+
+    private static void putDigits(byte[] target, int offset, int value, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            target[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private void putAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer[position++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void put(byte b) {
+        buffer[position++] = b;
+    }
+
+    private void put(byte[] bytes) {
+        if (bytes.length > BUFFER_SIZE - MAX_ROW_SIZE) {
+            flushBuffer();
+            write(bytes, bytes.length);
+            return;
+        }
+        if (position + bytes.length > BUFFER_SIZE - 64) {
+            flushBuffer();
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    void flush() {
+        flushBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushBuffer() {
+        write(buffer, position);
+        position = 0;
+    }
+
+    private void write(byte[] bytes, int length) {
+        try {
+            out.write(bytes, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,21 +1,86 @@
 package org.example.service;
 
+import org.example.metrics.Metrics;
+import org.example.metrics.OperationMetrics;
 import org.example.model.*;
 import org.example.exception.ExpenseNotFoundException;
 import org.example.exception.ValidationException;
 
 import java.io.*;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
 
 public class ExpenseFileService {
     private static final String EXPENSES_DIR = "expenses";
-    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final String CSV_HEADER = "ExpenseID,UserID,Category,Amount,DateTime";
+    // Update log records: "U,<csv row>" replaces a row, "D,<expense id>" removes it
+    private static final String LOG_UPDATE = "U,";
+    private static final String LOG_DELETE = "D,";
+    private static final long COMPACTION_MIN_LOG_SIZE = 64 * 1024;
+    // Ledgers at least this large are memory-mapped and parsed in parallel chunks
+    private static final long PARALLEL_LOAD_THRESHOLD = 32L * 1024 * 1024;
+    // The id index is rebuilt once the unindexed tail passes this size and an eighth of the ledger
+    private static final long INDEX_MIN_TAIL_BYTES = 64 * 1024;
+    private static final int APPEND_BUFFER_SIZE = 1024 * 1024;
 
+    private static final int MAX_WRITE_BATCH = 4096;
+    private static final long WRITER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final OperationMetrics ADD_EXPENSE = Metrics.operation("fileService.addExpense");
+    private static final OperationMetrics APPEND_EXPENSES = Metrics.operation("fileService.appendExpenses");
+    private static final OperationMetrics WRITE_BATCH = Metrics.operation("fileService.writeBatch");
+    private static final OperationMetrics LOAD_LEDGER = Metrics.operation("fileService.loadLedger");
+    private static final OperationMetrics SAVE_LEDGER = Metrics.operation("fileService.saveLedger");
+    private static final OperationMetrics UPDATE_EXPENSE = Metrics.operation("fileService.updateExpense");
+    private static final OperationMetrics DELETE_EXPENSE = Metrics.operation("fileService.deleteExpense");
+    private static final OperationMetrics FIND_EXPENSE = Metrics.operation("fileService.findExpenseById");
+    private static final OperationMetrics COMPACT = Metrics.operation("fileService.compact");
+    private static final OperationMetrics EXPORT_CSV = Metrics.operation("fileService.exportCsv");
+    private static final OperationMetrics CONVERT_TO_BINARY = Metrics.operation("fileService.convertCsvToBinary");
+    private static final OperationMetrics CONVERT_TO_CSV = Metrics.operation("fileService.convertBinaryToCsv");
+    private static final OperationMetrics LOAD_ROLLUP = Metrics.operation("fileService.loadRollup");
+    private static final OperationMetrics READ_ROLLUP = Metrics.operation("fileService.readRollup");
+    private static final OperationMetrics REBUILD_ROLLUP = Metrics.operation("fileService.rebuildRollup");
+    private static final OperationMetrics QUERY = Metrics.operation("fileService.queryLedger");
+
+    private final StorageFormat storageFormat;
+    private final WriteDurability writeDurability;
+    private final long maxBatchLatencyMillis;
+    private final Map<String, ExpenseIdIndex> idIndexes = new ConcurrentHashMap<>();
+    private final Map<String, GroupCommitWriter> writers = new ConcurrentHashMap<>();
+    private final AtomicBoolean shutdownHookAdded = new AtomicBoolean();
 
     public ExpenseFileService() {
+        this(StorageFormat.fromSystemProperty());
+    }
+
+    public ExpenseFileService(StorageFormat storageFormat) {
+        this(storageFormat, WriteDurability.fromSystemProperty(), Long.getLong("expense.write.maxLatencyMs", 5));
+    }
+
+    public ExpenseFileService(StorageFormat storageFormat, WriteDurability writeDurability, long maxBatchLatencyMillis) {
+        this.storageFormat = storageFormat;
+        this.writeDurability = writeDurability;
+        this.maxBatchLatencyMillis = Math.max(0, maxBatchLatencyMillis);
         // Create expenses directory if it doesn't exist
         File dir = new File(EXPENSES_DIR);
         if (!dir.exists()) {
@@ -27,7 +92,118 @@ public class ExpenseFileService {
         return EXPENSES_DIR + File.separator + csvId + ".csv";
     }
 
+    private String getLogFilePath(String csvId) {
+        return EXPENSES_DIR + File.separator + csvId + ".log";
+    }
+
+    private String getBinaryFilePath(String csvId) {
+        return EXPENSES_DIR + File.separator + csvId + ".bin";
+    }
+
+    private String getIndexFilePath(String csvId) {
+        return EXPENSES_DIR + File.separator + csvId + ".idx";
+    }
+
+    private String getRollupFilePath(String csvId) {
+        return EXPENSES_DIR + File.separator + csvId + ".rollup";
+    }
+
+    private Path getLedgerPath(String csvId) {
+        return getLedgerPath(csvId, storageFormat);
+    }
+
+    private Path getLedgerPath(String csvId, StorageFormat format) {
+        return Path.of(format == StorageFormat.BINARY ? getBinaryFilePath(csvId) : getCsvFilePath(csvId));
+    }
+
+    // The configured format, unless the ledger only exists in the other one and has not been converted yet
+    private StorageFormat getStoredFormat(String csvId) {
+        if (Files.exists(getLedgerPath(csvId))) {
+            return storageFormat;
+        }
+        StorageFormat other = storageFormat == StorageFormat.BINARY ? StorageFormat.CSV : StorageFormat.BINARY;
+        return Files.exists(getLedgerPath(csvId, other)) ? other : storageFormat;
+    }
+
+    public StorageFormat getStorageFormat() {
+        return storageFormat;
+    }
+
+    /**
+     * The csvId of every ledger in the expenses directory, whichever format it is stored in.
+     */
+    public List<String> listLedgers() throws IOException {
+        Set<String> csvIds = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Path.of(EXPENSES_DIR), "*.{csv,bin}")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                csvIds.add(name.substring(0, name.lastIndexOf('.')));
+            }
+        }
+        return new ArrayList<>(csvIds);
+    }
+
+    public long getLastModified(String csvId) {
+        return getLastModified(csvId, storageFormat);
+    }
+
+    private long getLastModified(String csvId, StorageFormat format) {
+        if (format == StorageFormat.BINARY) {
+            return new File(getBinaryFilePath(csvId)).lastModified();
+        }
+        return Math.max(new File(getCsvFilePath(csvId)).lastModified(),
+                new File(getLogFilePath(csvId)).lastModified());
+    }
+
+    public long getFileSize(String csvId) {
+        return getFileSize(csvId, storageFormat);
+    }
+
+    private long getFileSize(String csvId, StorageFormat format) {
+        if (format == StorageFormat.BINARY) {
+            return new File(getBinaryFilePath(csvId)).length();
+        }
+        return new File(getCsvFilePath(csvId)).length() + new File(getLogFilePath(csvId)).length();
+    }
+
+    private String getLockFilePath(String csvId) {
+        return EXPENSES_DIR + File.separator + csvId + ".lock";
+    }
+
+    // Shared by readers, exclusive for writers, across threads and processes (see LedgerLock)
+    private LedgerLock ledgerLock(String csvId) {
+        return LedgerLock.forFile(Path.of(getLockFilePath(csvId)));
+    }
+
     public void addExpense(String csvId, Expense expense) throws IOException {
+        try (OperationMetrics.Sample sample = ADD_EXPENSE.start()) {
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockExclusive();
+            try {
+                long sizeBefore = Metrics.ENABLED ? getFileSize(csvId) : 0;
+                appendExpense(csvId, expense);
+                if (Metrics.ENABLED) {
+                    sample.rows(1).bytesWritten(getFileSize(csvId) - sizeBefore);
+                }
+            } finally {
+                lock.unlockExclusive();
+            }
+            sample.success();
+        }
+    }
+
+    private void appendExpense(String csvId, Expense expense) throws IOException {
+        migrateIfNeeded(csvId, expense.getUserId());
+        boolean tracked = hasCurrentRollup(csvId);
+        if (storageFormat == StorageFormat.BINARY) {
+            ExpenseBinaryStore.append(Path.of(getBinaryFilePath(csvId)), expense);
+        } else {
+            appendCsvRow(csvId, expense);
+        }
+        updateRollup(csvId, tracked, null, ExpenseRollup.of(List.of(expense)));
+    }
+
+    private void appendCsvRow(String csvId, Expense expense) throws IOException {
         String filePath = getCsvFilePath(csvId);
         boolean fileExists = new File(filePath).exists();
 
@@ -36,7 +212,7 @@ public class ExpenseFileService {
             
             // Write header if file is new
             if (!fileExists) {
-                bw.write("ExpenseID,UserID,Category,Amount,DateTime");
+                bw.write(CSV_HEADER);
                 bw.newLine();
             }
             
@@ -45,86 +221,973 @@ public class ExpenseFileService {
         }
     }
 
+    /**
+     * Appends a batch of expenses through a single channel with large buffers, instead of
+     * opening the ledger once per row. Returns the number appended.
+     */
+    public int appendExpenses(String csvId, String userId, Iterable<? extends Expense> expenses) throws IOException {
+        try (OperationMetrics.Sample sample = APPEND_EXPENSES.start()) {
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockExclusive();
+            try {
+                long sizeBefore = Metrics.ENABLED ? getFileSize(csvId) : 0;
+                int count = appendExpenses(csvId, userId, expenses, false);
+                if (Metrics.ENABLED) {
+                    sample.rows(count).bytesWritten(getFileSize(csvId) - sizeBefore);
+                }
+                sample.success();
+                return count;
+            } finally {
+                lock.unlockExclusive();
+            }
+        }
+    }
+
+    // With force set, the batch is on disk when this returns
+    private int appendExpenses(String csvId, String userId, Iterable<? extends Expense> expenses, boolean force) throws IOException {
+        migrateIfNeeded(csvId, userId);
+        boolean tracked = hasCurrentRollup(csvId);
+        int count = storageFormat == StorageFormat.BINARY
+                ? ExpenseBinaryStore.appendAll(Path.of(getBinaryFilePath(csvId)), expenses, userId, force)
+                : appendCsvRows(csvId, expenses, force);
+        // Summed after the write, so an iterable that can only be walked once shows up as a mismatch
+        ExpenseRollup added = tracked ? ExpenseRollup.of(expenses) : null;
+        updateRollup(csvId, tracked && added.getRowCount() == count, null, added);
+        return count;
+    }
+
+    private int appendCsvRows(String csvId, Iterable<? extends Expense> expenses, boolean force) throws IOException {
+        Path path = Path.of(getCsvFilePath(csvId));
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(APPEND_BUFFER_SIZE);
+            if (position == 0) {
+                buffer.put((CSV_HEADER + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            } else {
+                // Start on a fresh line if the file does not end with one
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, position - 1);
+                if (last.get(0) != '\n') {
+                    buffer.put(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            // One builder and encoder for the whole batch; rows are encoded straight into the buffer
+            StringBuilder row = new StringBuilder(128);
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+            for (Expense expense : expenses) {
+                row.setLength(0);
+                expense.appendCSV(row).append(System.lineSeparator());
+                if (row.length() * 3 > buffer.remaining()) {
+                    position += writeAt(channel, buffer.flip(), position);
+                    buffer.clear();
+                    if (row.length() * 3 > buffer.capacity()) {
+                        buffer = ByteBuffer.allocate(row.length() * 3);
+                    }
+                }
+                encoder.reset().encode(CharBuffer.wrap(row), buffer, true);
+                count++;
+            }
+            writeAt(channel, buffer.flip(), position);
+            if (force) {
+                channel.force(false);
+            }
+        }
+        return count;
+    }
+
+    // ---------- Group commit ----------
+
+    /**
+     * Queues the expense for the ledger's writer thread, which appends queued expenses in
+     * batches (see {@link GroupCommitWriter}). The future completes once the expense is written
+     * with the configured {@link WriteDurability}, or fails with the write's exception.
+     */
+    public CompletableFuture<Void> addExpenseAsync(String csvId, Expense expense) {
+        if (shutdownHookAdded.compareAndSet(false, true)) {
+            // Writer threads are daemons; drain their queues before the JVM exits
+            Runtime.getRuntime().addShutdownHook(new Thread(this::closeWriters));
+        }
+        while (true) {
+            GroupCommitWriter writer = writers.computeIfAbsent(csvId, id -> new GroupCommitWriter("expense-writer-" + id,
+                    batch -> writeBatch(id, batch), TimeUnit.MILLISECONDS.toNanos(maxBatchLatencyMillis), MAX_WRITE_BATCH,
+                    WRITER_IDLE_NANOS, idle -> writers.remove(id, idle)));
+            CompletableFuture<Void> written = writer.submit(expense);
+            if (written != null) {
+                return written;
+            }
+            // The writer stopped for being idle just now; the next one takes its place
+            writers.remove(csvId, writer);
+        }
+    }
+
+    private void writeBatch(String csvId, List<Expense> batch) throws IOException {
+        try (OperationMetrics.Sample sample = WRITE_BATCH.start()) {
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockExclusive();
+            try {
+                String userId = batch.get(0).getUserId();
+                sample.rows(batch.size());
+                if (writeDurability == WriteDurability.RECORD) {
+                    for (Expense expense : batch) {
+                        appendExpenses(csvId, userId, List.of(expense), true);
+                    }
+                } else {
+                    appendExpenses(csvId, userId, batch, writeDurability == WriteDurability.BATCH);
+                }
+            } finally {
+                lock.unlockExclusive();
+            }
+            sample.success();
+        }
+    }
+
+    /**
+     * Writes every queued expense and stops the writer threads.
+     */
+    public void closeWriters() {
+        for (String csvId : List.copyOf(writers.keySet())) {
+            GroupCommitWriter writer = writers.remove(csvId);
+            if (writer == null) continue;
+            try {
+                writer.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static int writeAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
     public List<Expense> loadAllExpenses(String csvId, String userId) throws IOException {
-        String filePath = getCsvFilePath(csvId);
-        File file = new File(filePath);
-        
-        if (!file.exists()) {
-            return new ArrayList<>();
+        return loadLedger(csvId, userId).toExpenses();
+    }
+
+    public ExpenseLedger loadLedger(String csvId, String userId) throws IOException {
+        try (OperationMetrics.Sample sample = LOAD_LEDGER.start()) {
+            migrateIfNeeded(csvId, userId);
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockShared();
+            try {
+                ExpenseLedger ledger = storageFormat == StorageFormat.BINARY
+                        ? ExpenseBinaryStore.read(Path.of(getBinaryFilePath(csvId)), userId)
+                        : loadCsvLedger(csvId, userId);
+                if (Metrics.ENABLED) {
+                    sample.rows(ledger.size()).bytesRead(getFileSize(csvId));
+                }
+                sample.success();
+                return ledger;
+            } finally {
+                lock.unlockShared();
+            }
         }
+    }
 
-        List<Expense> expenses = new ArrayList<>();
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line = reader.readLine(); // Skip header
-            
+    private ExpenseLedger loadCsvLedger(String csvId, String userId) throws IOException {
+        Path path = Path.of(getCsvFilePath(csvId));
+
+        if (!Files.exists(path)) {
+            return new ExpenseLedger(userId);
+        }
+
+        ExpenseLedger ledger;
+        if (Files.size(path) >= PARALLEL_LOAD_THRESHOLD) {
+            ledger = new MappedExpenseLoader(path, userId).load();
+        } else {
+            ledger = new ExpenseLedger(userId);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                new ExpenseCsvParser(ledger).parse(channel, true);
+            }
+        }
+
+        applyUpdateLog(csvId, ledger);
+        return ledger;
+    }
+
+    private void applyUpdateLog(String csvId, ExpenseLedger ledger) throws IOException {
+        File logFile = new File(getLogFilePath(csvId));
+        if (!logFile.exists()) {
+            return;
+        }
+
+        ExpenseCsvParser parser = new ExpenseCsvParser(ledger);
+        try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
+            String line;
             while ((line = reader.readLine()) != null) {
                 if (line.trim().isEmpty()) continue;
-                
+
                 try {
-                    Expense expense = parseExpenseFromCsv(line, userId);
-                    if (expense != null) {
-                        expenses.add(expense);
+                    if (line.startsWith(LOG_UPDATE)) {
+                        Expense expense = parser.parseLine(line.substring(LOG_UPDATE.length()));
+                        int row = expense == null ? -1 : ledger.indexOf(expense.getExpenseId());
+                        if (row >= 0) {
+                            ledger.set(row, expense);
+                        }
+                    } else if (line.startsWith(LOG_DELETE)) {
+                        int row = ledger.indexOf(line.substring(LOG_DELETE.length()));
+                        if (row >= 0) {
+                            ledger.remove(row);
+                        }
                     }
                 } catch (Exception e) {
-                    System.err.println("Error parsing expense line: " + line + " - " + e.getMessage());
+                    System.err.println("Error applying update log line: " + line + " - " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void saveAllExpenses(String csvId, List<Expense> expenses) throws IOException {
+        ExpenseLedger ledger = new ExpenseLedger(expenses.isEmpty() ? "" : expenses.get(0).getUserId());
+        expenses.forEach(ledger::add);
+        saveLedger(csvId, ledger);
+    }
+
+    public void saveLedger(String csvId, ExpenseLedger ledger) throws IOException {
+        try (OperationMetrics.Sample sample = SAVE_LEDGER.start()) {
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockExclusive();
+            try {
+                if (storageFormat == StorageFormat.BINARY) {
+                    ExpenseBinaryStore.write(Path.of(getBinaryFilePath(csvId)), ledger);
+                } else {
+                    saveCsvLedger(csvId, ledger);
+                }
+                dropIdIndex(csvId);
+                storeRollup(csvId, ExpenseRollup.of(ledger));
+                if (Metrics.ENABLED) {
+                    sample.rows(ledger.size()).bytesWritten(getFileSize(csvId));
+                }
+            } finally {
+                lock.unlockExclusive();
+            }
+            sample.success();
+        }
+    }
+
+    private void saveCsvLedger(String csvId, ExpenseLedger ledger) throws IOException {
+        Path target = Path.of(getCsvFilePath(csvId));
+        Path temp = Path.of(getCsvFilePath(csvId) + ".tmp");
+
+        // Rows are formatted straight from the ledger's columns, without an Expense per row
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            ExpenseCsvWriter writer = new ExpenseCsvWriter(out, ledger, ledger.getUserId(), System.lineSeparator());
+            writer.writeLine(CSV_HEADER);
+            for (int row = 0; row < ledger.size(); row++) {
+                long idCode = ledger.getIdCode(row);
+                writer.writeRow(idCode, idCode == ExpenseIdCodec.IRREGULAR ? ledger.getExpenseId(row) : null,
+                        ledger.getCategoryId(row), ledger.getAmountCents(row), ledger.getEpochDay(row));
+            }
+            writer.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        // On disk before the rename, or a crash could leave the ledger empty
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        // The rewritten file already reflects every logged update, so the log goes with the swap
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(Path.of(getLogFilePath(csvId)));
+    }
+
+    /**
+     * Records the new version of an expense. Binary ledgers overwrite the record in place. CSV
+     * ledgers overwrite the row in place when the new row has the same length and the update log
+     * holds nothing for it; otherwise the new version is appended to the update log.
+     */
+    public void updateExpense(String csvId, String expenseId, Expense updatedExpense) throws ExpenseNotFoundException, IOException, ValidationException {
+        try (OperationMetrics.Sample sample = UPDATE_EXPENSE.start()) {
+            if (!expenseId.equals(updatedExpense.getExpenseId())) {
+                throw new ValidationException("Expense ID cannot be changed");
+            }
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockExclusive();
+            try {
+                writeUpdate(csvId, expenseId, updatedExpense);
+            } finally {
+                lock.unlockExclusive();
+            }
+            sample.success();
+        }
+    }
+
+    private void writeUpdate(String csvId, String expenseId, Expense updatedExpense) throws ExpenseNotFoundException, IOException {
+        migrateIfNeeded(csvId, updatedExpense.getUserId());
+        ExpenseRollup rollup = currentRollup(csvId);
+        // The rollup is moved by the difference, so it needs the version being replaced
+        Expense previous = rollup == null ? null : lookUpExpense(csvId, updatedExpense.getUserId(), expenseId);
+        writeUpdatedRow(csvId, expenseId, updatedExpense);
+        boolean exact = previous != null && rollup.remove(previous);
+        updateRollup(csvId, exact, exact ? ExpenseRollup.of(List.of(previous)) : null, ExpenseRollup.of(List.of(updatedExpense)));
+    }
+
+    private void writeUpdatedRow(String csvId, String expenseId, Expense updatedExpense) throws ExpenseNotFoundException, IOException {
+        if (storageFormat == StorageFormat.BINARY) {
+            int record = (int) findPosition(csvId, expenseId);
+            if (!ExpenseBinaryStore.update(Path.of(getBinaryFilePath(csvId)), updatedExpense, record)) {
+                throw new ExpenseNotFoundException("Expense with ID '" + expenseId + "' not found");
+            }
+            return;
+        }
+
+        long offset = findPosition(csvId, expenseId);
+        String logged = offset < 0 ? null : lastLogRecord(csvId, expenseId);
+        if (offset < 0 || (logged != null && logged.startsWith(LOG_DELETE))) {
+            throw new ExpenseNotFoundException("Expense with ID '" + expenseId + "' not found");
+        }
+        if (logged == null && overwriteCsvRow(csvId, offset, updatedExpense.toCSV())) {
+            return;
+        }
+        appendToLog(csvId, LOG_UPDATE + updatedExpense.toCSV());
+    }
+
+    public void deleteExpense(String csvId, String expenseId) throws IOException {
+        try (OperationMetrics.Sample sample = DELETE_EXPENSE.start()) {
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockExclusive();
+            try {
+                ExpenseRollup rollup = currentRollup(csvId);
+                // Only the category, amount and date of the removed row matter here
+                Expense previous = rollup == null ? null : lookUpExpense(csvId, "", expenseId);
+                if (storageFormat == StorageFormat.BINARY) {
+                    ExpenseBinaryStore.delete(Path.of(getBinaryFilePath(csvId)), expenseId, (int) findPosition(csvId, expenseId));
+                } else {
+                    appendToLog(csvId, LOG_DELETE + expenseId);
                 }
+                // Deleting an id that is not there leaves the totals as they were
+                boolean exact = rollup != null && (previous == null || rollup.remove(previous));
+                updateRollup(csvId, exact, previous == null ? null : ExpenseRollup.of(List.of(previous)), null);
+            } finally {
+                lock.unlockExclusive();
             }
+            sample.success();
         }
-        
-        return expenses;
     }
 
-    private Expense parseExpenseFromCsv(String csvLine, String userId) throws ValidationException {
-        String[] parts = csvLine.split(",", -1);
-        // Support both old format (6+ columns with description) and new format (5 columns)
-        if (parts.length < 5) return null;
+    // ---------- Id index ----------
 
-        String expenseId = parts[0];
-        String category = parts[2];
-        double amount = Double.parseDouble(parts[3]);
-        LocalDate dateTime = LocalDate.parse(parts[4], DATE_TIME_FORMATTER);
-        // Description is empty for new format, use empty string if not present
-        String description = (parts.length > 5) ? parts[5] : "";
+    /**
+     * Looks up a single expense through the id index, without loading the ledger. Returns null
+     * when there is no such expense.
+     */
+    public Expense findExpenseById(String csvId, String userId, String expenseId) throws IOException {
+        try (OperationMetrics.Sample sample = FIND_EXPENSE.start()) {
+            migrateIfNeeded(csvId, userId);
+            LedgerLock lock = ledgerLock(csvId);
+            Expense expense;
+            lock.lockShared();
+            try {
+                expense = lookUpExpense(csvId, userId, expenseId);
+            } finally {
+                lock.unlockShared();
+            }
+            persistIdIndex(csvId);
+            // A missing id counts as a miss, like the lookups that throw
+            if (expense != null) {
+                sample.success();
+            }
+            return expense;
+        }
+    }
 
-        // All expenses are now SimpleExpense
-        return new org.example.model.SimpleExpense(expenseId, userId, category, amount, dateTime);
+    // An index a reader rebuilt is written out under the exclusive lock, so the next process can open it
+    private void persistIdIndex(String csvId) throws IOException {
+        ExpenseIdIndex index = idIndexes.get(csvId);
+        if (index == null || index.isPersisted()) {
+            return;
+        }
+        LedgerLock lock = ledgerLock(csvId);
+        lock.lockExclusive();
+        try {
+            getIdIndex(csvId, false);
+        } finally {
+            lock.unlockExclusive();
+        }
     }
 
-    public void saveAllExpenses(String csvId, List<Expense> expenses) throws IOException {
-        String filePath = getCsvFilePath(csvId);
-        
-        try (FileWriter writer = new FileWriter(filePath);
+    private Expense lookUpExpense(String csvId, String userId, String expenseId) throws IOException {
+        if (storageFormat == StorageFormat.BINARY) {
+            long record = findPosition(csvId, expenseId);
+            return record < 0 ? null : ExpenseBinaryStore.readRecord(Path.of(getBinaryFilePath(csvId)), (int) record, userId);
+        }
+
+        // Updates are only logged for rows in the base file, so an id the index turns away is not
+        // in the update log either
+        long offset = findPosition(csvId, expenseId);
+        if (offset < 0) {
+            return null;
+        }
+        // A logged update or delete supersedes the row in the base file
+        String logged = lastLogRecord(csvId, expenseId);
+        if (logged != null) {
+            return logged.startsWith(LOG_DELETE) ? null : parseRow(userId, logged.substring(LOG_UPDATE.length()));
+        }
+        return parseRow(userId, readCsvRow(Path.of(getCsvFilePath(csvId)), offset));
+    }
+
+    /**
+     * Byte offset (CSV) or record number (binary) of the expense in the ledger file, or -1.
+     * Unknown ids are answered by the index's Bloom filter and in-memory tail alone.
+     */
+    private long findPosition(String csvId, String expenseId) throws IOException {
+        boolean rebuild = false;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            ExpenseIdIndex index = getIdIndex(csvId, rebuild);
+            if (index == null) {
+                return -1;
+            }
+
+            boolean stale = false;
+            for (long position : index.find(expenseId)) {
+                if (holdsId(csvId, position, expenseId)) {
+                    return position;
+                }
+                stale = true;
+            }
+            if (!stale) {
+                return -1;
+            }
+            // The file was rewritten under the index; rebuild it and look again
+            rebuild = true;
+        }
+        return -1;
+    }
+
+    private ExpenseIdIndex getIdIndex(String csvId, boolean rebuild) throws IOException {
+        Path ledger = getLedgerPath(csvId);
+        if (!Files.exists(ledger)) {
+            return null;
+        }
+        long length = storageFormat == StorageFormat.BINARY ? ExpenseBinaryStore.recordCount(ledger) : Files.size(ledger);
+        Path indexPath = Path.of(getIndexFilePath(csvId));
+
+        ExpenseIdIndex index = rebuild ? null : idIndexes.get(csvId);
+        if (index == null && !rebuild) {
+            try {
+                index = ExpenseIdIndex.open(indexPath);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Rebuilding unreadable expense index: " + e.getMessage());
+            }
+        }
+        if (index == null || !index.isUsableFor(ledger, storageFormat, length) || tailTooLong(index.getCoveredLength(), length)) {
+            index = ExpenseIdIndex.build(ledger, storageFormat);
+        }
+        // Only a writer replaces the sidecar, so readers never race on it; theirs waits in memory
+        if (!index.isPersisted() && ledgerLock(csvId).isHeldExclusively()) {
+            index.write(indexPath);
+        }
+        // Rows appended since are read once and kept in memory, not scanned on every lookup
+        index = index.withTail(ledger, length);
+        idIndexes.put(csvId, index);
+        return index;
+    }
+
+    private boolean tailTooLong(long covered, long length) {
+        long minimum = storageFormat == StorageFormat.BINARY
+                ? INDEX_MIN_TAIL_BYTES / ExpenseBinaryStore.RECORD_SIZE
+                : INDEX_MIN_TAIL_BYTES;
+        long tail = length - covered;
+        return tail > minimum && tail > covered / 8;
+    }
+
+    private void dropIdIndex(String csvId) throws IOException {
+        idIndexes.remove(csvId);
+        Files.deleteIfExists(Path.of(getIndexFilePath(csvId)));
+    }
+
+    private boolean holdsId(String csvId, long position, String expenseId) throws IOException {
+        if (storageFormat == StorageFormat.BINARY) {
+            // Deleted records still count, so a deleted id is not mistaken for a stale index
+            return expenseId.equals(ExpenseBinaryStore.readId(Path.of(getBinaryFilePath(csvId)), (int) position));
+        }
+        String row = readCsvRow(Path.of(getCsvFilePath(csvId)), position);
+        return row != null && row.startsWith(expenseId + ",");
+    }
+
+    // Reads the line starting at the offset, without its line terminator
+    private static String readCsvRow(Path path, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            while (true) {
+                int read = channel.read(buffer, offset + buffer.position());
+                for (int i = 0; i < buffer.position(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        return decodeRow(buffer, i);
+                    }
+                }
+                if (read < 0) {
+                    return buffer.position() == 0 ? null : decodeRow(buffer, buffer.position());
+                }
+                if (!buffer.hasRemaining()) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                }
+            }
+        }
+    }
+
+    private static String decodeRow(ByteBuffer buffer, int end) {
+        if (end > 0 && buffer.get(end - 1) == '\r') end--;
+        return new String(buffer.array(), 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static Expense parseRow(String userId, String row) throws IOException {
+        try {
+            return row == null ? null : new ExpenseCsvParser(new ExpenseLedger(userId)).parseLine(row);
+        } catch (ValidationException e) {
+            throw new IOException("Invalid expense row: " + row, e);
+        }
+    }
+
+    // Positional write of a row with the same byte length as the one it replaces
+    private boolean overwriteCsvRow(String csvId, long offset, String row) throws IOException {
+        Path path = Path.of(getCsvFilePath(csvId));
+        String existing = readCsvRow(path, offset);
+        byte[] bytes = row.getBytes(StandardCharsets.UTF_8);
+        if (existing == null || existing.getBytes(StandardCharsets.UTF_8).length != bytes.length) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+        }
+        return true;
+    }
+
+    // The most recent update-log record about the expense, or null when it has none
+    private String lastLogRecord(String csvId, String expenseId) throws IOException {
+        File logFile = new File(getLogFilePath(csvId));
+        if (!logFile.exists()) {
+            return null;
+        }
+
+        String update = LOG_UPDATE + expenseId + ",";
+        String delete = LOG_DELETE + expenseId;
+        String last = null;
+        try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(update) || line.equals(delete)) {
+                    last = line;
+                }
+            }
+        }
+        return last;
+    }
+
+    private void appendToLog(String csvId, String record) throws IOException {
+        try (FileWriter writer = new FileWriter(getLogFilePath(csvId), true);
              BufferedWriter bw = new BufferedWriter(writer)) {
-            
-            // Write header
-            bw.write("ExpenseID,UserID,Category,Amount,DateTime");
+            bw.write(record);
             bw.newLine();
-            
-            // Write all expenses
-            for (Expense expense : expenses) {
-                bw.write(expense.toCSV());
-                bw.newLine();
+        }
+    }
+
+    public boolean needsCompaction(String csvId) {
+        if (storageFormat == StorageFormat.BINARY) {
+            return false;
+        }
+        long logSize = new File(getLogFilePath(csvId)).length();
+        return logSize > COMPACTION_MIN_LOG_SIZE && logSize > new File(getCsvFilePath(csvId)).length() / 4;
+    }
+
+    /**
+     * Reloads and rewrites the ledger under one exclusive lock, so nothing appended by another
+     * process in between is lost. Returns the ledger as written.
+     */
+    public ExpenseLedger compact(String csvId, String userId) throws IOException {
+        try (OperationMetrics.Sample sample = COMPACT.start()) {
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockExclusive();
+            try {
+                ExpenseLedger ledger = loadLedger(csvId, userId);
+                saveLedger(csvId, ledger);
+                sample.rows(ledger.size()).success();
+                return ledger;
+            } finally {
+                lock.unlockExclusive();
             }
         }
     }
 
-    public void updateExpense(String csvId, String expenseId, Expense updatedExpense) throws ExpenseNotFoundException, IOException, ValidationException {
-        List<Expense> expenses = loadAllExpenses(csvId, updatedExpense.getUserId());
-        
-        boolean found = false;
-        for (int i = 0; i < expenses.size(); i++) {
-            if (expenses.get(i).getExpenseId().equals(expenseId)) {
-                expenses.set(i, updatedExpense);
-                found = true;
-                break;
-            }
-        }
-        
-        if (!found) {
-            throw new ExpenseNotFoundException("Expense with ID '" + expenseId + "' not found");
+    // ---------- Query ----------
+
+    /**
+     * The rows that pass the query's category, date and amount filters, in ledger order, read
+     * without loading the rest: the filters are pushed into the scan, so a rejected row is
+     * skipped after comparing its category and date bytes. With no sort, the scan stops at the
+     * limit. A CSV ledger with a pending update log is loaded whole instead, since logged changes
+     * only apply to a loaded ledger; callers answer the query from the result with
+     * {@link ExpenseQuery#select} or {@link ExpenseQuery#summarize}, which filter again.
+     */
+    public ExpenseLedger queryLedger(String csvId, String userId, ExpenseQuery query) throws IOException {
+        try (OperationMetrics.Sample sample = QUERY.start()) {
+            migrateIfNeeded(csvId, userId);
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockShared();
+            try {
+                if (storageFormat == StorageFormat.CSV && new File(getLogFilePath(csvId)).exists()) {
+                    ExpenseLedger ledger = loadCsvLedger(csvId, userId);
+                    sample.success();
+                    return ledger;
+                }
+                ExpenseLedger ledger = new ExpenseLedger(userId);
+                // A sorted query has to see every match before it can keep the first few
+                int limit = query.getSort() == ExpenseQuery.Sort.NONE ? query.getLimit() : Integer.MAX_VALUE;
+                ExpenseScanFilter filter = new ExpenseScanFilter(query, ledger, limit);
+                Path path = getLedgerPath(csvId);
+                if (storageFormat == StorageFormat.BINARY) {
+                    ExpenseBinaryStore.scan(path, ledger, filter, ledger::add);
+                } else if (Files.exists(path)) {
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        new ExpenseCsvParser(ledger, filter, ledger::add).parse(channel, true);
+                    }
+                }
+                if (Metrics.ENABLED) {
+                    sample.rows(ledger.size()).bytesRead(getFileSize(csvId));
+                }
+                sample.success();
+                return ledger;
+            } finally {
+                lock.unlockShared();
+            }
+        }
+    }
+
+    // ---------- Monthly rollup ----------
+
+    /**
+     * Per (month, category) count, total, minimum and maximum for the ledger, read from its
+     * {@code .rollup} sidecar. The sidecar is kept up to date by every write through this service;
+     * when it is missing or the ledger was changed some other way it is rebuilt from the ledger
+     * first.
+     */
+    public ExpenseRollup loadRollup(String csvId, String userId) throws IOException {
+        try (OperationMetrics.Sample sample = LOAD_ROLLUP.start()) {
+            migrateIfNeeded(csvId, userId);
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockShared();
+            try {
+                ExpenseRollup rollup = currentRollup(csvId);
+                if (rollup != null) {
+                    sample.success();
+                    return rollup;
+                }
+            } finally {
+                lock.unlockShared();
+            }
+            // Rebuilding replaces the sidecar, which only a writer may do
+            lock.lockExclusive();
+            try {
+                ExpenseRollup rollup = currentRollup(csvId);
+                if (rollup == null) {
+                    rollup = buildRollup(csvId, userId);
+                }
+                sample.success();
+                return rollup;
+            } finally {
+                lock.unlockExclusive();
+            }
+        }
+    }
+
+    /**
+     * Like {@link #loadRollup}, but never writes: the ledger is read in whichever format it is
+     * stored, without converting it, and a stale sidecar is left alone rather than replaced. For
+     * read-only passes over ledgers that other processes may be serving.
+     */
+    public ExpenseRollup readRollup(String csvId, String userId) throws IOException {
+        try (OperationMetrics.Sample sample = READ_ROLLUP.start()) {
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockShared();
+            try {
+                StorageFormat format = getStoredFormat(csvId);
+                ExpenseRollup rollup = currentRollup(csvId, format);
+                if (rollup != null) {
+                    sample.success();
+                    return rollup;
+                }
+                rollup = format == StorageFormat.CSV && new File(getLogFilePath(csvId)).exists()
+                        ? ExpenseRollup.of(loadCsvLedger(csvId, userId))
+                        : scanRollup(csvId, userId, format);
+                sample.success();
+                return rollup;
+            } finally {
+                lock.unlockShared();
+            }
+        }
+    }
+
+    /**
+     * Recomputes the rollup from the ledger file and its update log, whatever state the sidecar is in.
+     */
+    public ExpenseRollup rebuildRollup(String csvId, String userId) throws IOException {
+        try (OperationMetrics.Sample sample = REBUILD_ROLLUP.start()) {
+            migrateIfNeeded(csvId, userId);
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockExclusive();
+            try {
+                ExpenseRollup rollup = buildRollup(csvId, userId);
+                sample.success();
+                return rollup;
+            } finally {
+                lock.unlockExclusive();
+            }
+        }
+    }
+
+    // Writes the sidecar, so callers hold the exclusive lock
+    private ExpenseRollup buildRollup(String csvId, String userId) throws IOException {
+        ExpenseRollup rollup = storageFormat == StorageFormat.CSV && new File(getLogFilePath(csvId)).exists()
+                // Logged updates only apply to a loaded ledger
+                ? ExpenseRollup.of(loadCsvLedger(csvId, userId))
+                : scanRollup(csvId, userId, storageFormat);
+        storeRollup(csvId, rollup);
+        return rollup;
+    }
+
+    // Streams the rows straight into the buckets, without a ledger in memory
+    private ExpenseRollup scanRollup(String csvId, String userId, StorageFormat format) throws IOException {
+        ExpenseRollup rollup = new ExpenseRollup();
+        ExpenseLedger dictionary = new ExpenseLedger(userId);
+        ExpenseCsvParser.RowSink sink = (idCode, expenseId, categoryId, cents, epochDay) ->
+                rollup.add(ExpenseRollup.monthOf(epochDay), dictionary.getCategoryName(categoryId), 1, cents, cents, cents);
+        Path ledger = getLedgerPath(csvId, format);
+        if (format == StorageFormat.BINARY) {
+            ExpenseBinaryStore.scan(ledger, dictionary, sink);
+        } else if (Files.exists(ledger)) {
+            try (FileChannel channel = FileChannel.open(ledger, StandardOpenOption.READ)) {
+                new ExpenseCsvParser(dictionary, sink).parse(channel, true);
+            }
+        }
+        return rollup;
+    }
+
+    // The rollup matching the ledger as it is now, or null when there is none; callers hold the lock
+    private ExpenseRollup currentRollup(String csvId) throws IOException {
+        return currentRollup(csvId, storageFormat);
+    }
+
+    private ExpenseRollup currentRollup(String csvId, StorageFormat format) throws IOException {
+        long length = getFileSize(csvId, format);
+        if (length == 0) {
+            return new ExpenseRollup();
+        }
+        try {
+            return ExpenseRollupFile.read(Path.of(getRollupFilePath(csvId)), length, getLastModified(csvId, format));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Rebuilding unreadable expense rollup: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Whether the sidecar matches the ledger as it is now, checked from its last entry alone
+    private boolean hasCurrentRollup(String csvId) throws IOException {
+        long length = getFileSize(csvId);
+        if (length == 0) {
+            // No rows yet: start the sidecar so the ledger's rollup is kept from the first write
+            storeRollup(csvId, new ExpenseRollup());
+            return true;
+        }
+        return ExpenseRollupFile.describes(Path.of(getRollupFilePath(csvId)), length, getLastModified(csvId));
+    }
+
+    /**
+     * Appends a write's change to the sidecar, which must have matched the ledger before the
+     * write. Otherwise, or when the change cannot be applied exactly, the sidecar is dropped and
+     * the next read rebuilds it.
+     */
+    private void updateRollup(String csvId, boolean exact, ExpenseRollup removed, ExpenseRollup added) throws IOException {
+        Path path = Path.of(getRollupFilePath(csvId));
+        if (exact) {
+            ExpenseRollupFile.append(path, removed, added, getFileSize(csvId), getLastModified(csvId));
+        } else {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private void storeRollup(String csvId, ExpenseRollup rollup) throws IOException {
+        ExpenseRollupFile.write(Path.of(getRollupFilePath(csvId)), rollup, getFileSize(csvId), getLastModified(csvId));
+    }
+
+    // ---------- Export ----------
+
+    /**
+     * Writes the ledger to {@code target} as CSV with the usual header, keeping only the rows
+     * that pass the query's filters, in ledger order and up to its limit; its sort does not
+     * apply. A pending update log is compacted first, so the ledger file itself holds the final rows. An
+     * unfiltered, uncompressed export of a CSV ledger is then a straight file copy done with
+     * {@link FileChannel#transferTo}; everything else is streamed row by row from the parser (or
+     * the binary records) into the output, so memory stays bounded on any ledger size.
+     *
+     * @return the number of rows written, or -1 when the file was copied without counting them
+     */
+    public long exportCsv(String csvId, String userId, Path target, ExpenseQuery query, boolean gzip) throws IOException {
+        try (OperationMetrics.Sample sample = EXPORT_CSV.start()) {
+            migrateIfNeeded(csvId, userId);
+            LedgerLock lock = ledgerLock(csvId);
+            while (true) {
+                if (storageFormat == StorageFormat.CSV && new File(getLogFilePath(csvId)).length() > 0) {
+                    compact(csvId, userId);
+                }
+                lock.lockShared();
+                try {
+                    // Another process may have logged an update since the compaction
+                    if (storageFormat == StorageFormat.BINARY || new File(getLogFilePath(csvId)).length() == 0) {
+                        long rows = exportLocked(csvId, userId, target, query, gzip);
+                        if (Metrics.ENABLED) {
+                            sample.rows(Math.max(0, rows)).bytesWritten(Files.size(target));
+                        }
+                        sample.success();
+                        return rows;
+                    }
+                } finally {
+                    lock.unlockShared();
+                }
+            }
+        }
+    }
+
+    private long exportLocked(String csvId, String userId, Path target, ExpenseQuery query, boolean gzip) throws IOException {
+        Path source = getLedgerPath(csvId);
+        boolean filtered = query.hasCategories() || query.hasDateRange() || query.hasAmountRange()
+                || query.getLimit() != Integer.MAX_VALUE;
+        if (storageFormat == StorageFormat.CSV && !filtered && !gzip && hasCurrentHeader(source)) {
+            copyFile(source, target);
+            return -1;
+        }
+
+        ExpenseLedger dictionary = new ExpenseLedger(userId);
+        // Sorting would need every row in memory, so the export keeps ledger order
+        ExpenseScanFilter filter = new ExpenseScanFilter(query, dictionary, query.getLimit());
+        long[] rows = new long[1];
+
+        try (OutputStream file = Files.newOutputStream(target);
+             OutputStream out = gzip ? new GZIPOutputStream(file, 64 * 1024) : file) {
+            ExpenseCsvWriter writer = new ExpenseCsvWriter(out, dictionary, userId, "\n");
+            writer.writeLine(CSV_HEADER);
+            ExpenseCsvParser.RowSink sink = (idCode, expenseId, categoryId, cents, epochDay) -> {
+                writer.writeRow(idCode, expenseId, categoryId, cents, epochDay);
+                rows[0]++;
+            };
+
+            try {
+                if (storageFormat == StorageFormat.BINARY) {
+                    ExpenseBinaryStore.scan(source, dictionary, filter, sink);
+                } else if (Files.exists(source)) {
+                    try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                        new ExpenseCsvParser(dictionary, filter, sink).parse(channel, true);
+                    }
+                }
+                writer.flush();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return rows[0];
+    }
+
+    // Files written before the header settled carry other columns and are re-formatted instead
+    private boolean hasCurrentHeader(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        byte[] expected = CSV_HEADER.getBytes(StandardCharsets.UTF_8);
+        // Room for the line terminator too, which is whatever line separator wrote the file
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 2);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+        }
+        byte[] read = buffer.array();
+        int end = expected.length;
+        if (buffer.position() <= end || !Arrays.equals(read, 0, end, expected, 0, end)) {
+            return false;
+        }
+        return read[end] == '\n' || (read[end] == '\r' && buffer.position() > end + 1 && read[end + 1] == '\n');
+    }
+
+    private static void copyFile(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long copied = 0;
+            while (copied < size) {
+                copied += in.transferTo(copied, size - copied, out);
+            }
+        }
+    }
+
+    // ---------- Format conversion ----------
+
+    /**
+     * Moves a ledger stored in the other format over to the configured one, the first time the
+     * ledger is touched. The old file is kept with a ".bak" suffix.
+     */
+    private void migrateIfNeeded(String csvId, String userId) throws IOException {
+        if (storageFormat == StorageFormat.BINARY) {
+            if (!new File(getBinaryFilePath(csvId)).exists() && new File(getCsvFilePath(csvId)).exists()) {
+                convertCsvToBinary(csvId, userId);
+            }
+        } else if (!new File(getCsvFilePath(csvId)).exists() && new File(getBinaryFilePath(csvId)).exists()) {
+            convertBinaryToCsv(csvId, userId);
+        }
+    }
+
+    public void convertCsvToBinary(String csvId, String userId) throws IOException {
+        try (OperationMetrics.Sample sample = CONVERT_TO_BINARY.start()) {
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockExclusive();
+            try {
+                // Another process may have converted it while this one waited for the lock
+                if (!new File(getCsvFilePath(csvId)).exists()) {
+                    sample.success();
+                    return;
+                }
+                ExpenseLedger ledger = loadCsvLedger(csvId, userId);
+                ExpenseBinaryStore.write(Path.of(getBinaryFilePath(csvId)), ledger);
+                Files.move(Path.of(getCsvFilePath(csvId)), Path.of(getCsvFilePath(csvId) + ".bak"),
+                        StandardCopyOption.REPLACE_EXISTING);
+                Files.deleteIfExists(Path.of(getLogFilePath(csvId)));
+                dropIdIndex(csvId);
+                storeRollup(csvId, ExpenseRollup.of(ledger));
+            } finally {
+                lock.unlockExclusive();
+            }
+            sample.success();
+        }
+    }
+
+    public void convertBinaryToCsv(String csvId, String userId) throws IOException {
+        try (OperationMetrics.Sample sample = CONVERT_TO_CSV.start()) {
+            LedgerLock lock = ledgerLock(csvId);
+            lock.lockExclusive();
+            try {
+                if (!new File(getBinaryFilePath(csvId)).exists()) {
+                    sample.success();
+                    return;
+                }
+                ExpenseLedger ledger = ExpenseBinaryStore.read(Path.of(getBinaryFilePath(csvId)), userId);
+                saveCsvLedger(csvId, ledger);
+                Files.move(Path.of(getBinaryFilePath(csvId)), Path.of(getBinaryFilePath(csvId) + ".bak"),
+                        StandardCopyOption.REPLACE_EXISTING);
+                dropIdIndex(csvId);
+                storeRollup(csvId, ExpenseRollup.of(ledger));
+            } finally {
+                lock.unlockExclusive();
+            }
+            sample.success();
         }
-        
-        saveAllExpenses(csvId, expenses);
     }
 }
@@ -0,0 +1,450 @@
+package org.example.service;
+
+import org.example.model.ExpenseIdCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Persistent sidecar index ({@code <csvId>.idx}) from expense id to the row's position in the
+ * ledger file: a byte offset for CSV ledgers, a record number for binary ones.
+ * <pre>
+ * header   40 bytes  magic "SEMI", version (short), format (byte), reserved (byte),
+ *                    ledger file key hash (int), covered length (long), entry count (int),
+ *                    bloom filter words (int), reserved (12 bytes)
+ * bloom    bloom filter words (long each)
+ * entries  (key (long), position (long)) sorted by key
+ * </pre>
+ * Keys are {@link ExpenseIdCodec} codes, or a negative 64-bit hash for ids the codec cannot pack.
+ * The index covers the ledger up to "covered length" (bytes or records); rows appended after that
+ * form a tail that is scanned once into memory by {@link #withTail} and kept there until the index
+ * is rebuilt. The Bloom filter is held in memory and the entries are mapped, so a lookup is a
+ * binary search over the mapping and the tail, and a definite miss never touches the disk.
+ */
+class ExpenseIdIndex {
+    private static final int MAGIC = 0x53454D49; // "SEMI"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int ENTRY_SIZE = 16;
+    private static final int BLOOM_BITS_PER_ENTRY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private final StorageFormat format;
+    private final int ledgerKey;
+    private final long coveredLength;
+    private final int entryCount;
+    private final long[] bloom;
+    private final ByteBuffer entries;
+    // Rows past the covered length, sorted by key, and how far they reach
+    private final long scannedLength;
+    private final long[] tailKeys;
+    private final long[] tailPositions;
+    // Whether the covered part is what the sidecar on disk holds
+    private volatile boolean persisted;
+
+    private ExpenseIdIndex(StorageFormat format, int ledgerKey, long coveredLength, int entryCount, long[] bloom, ByteBuffer entries) {
+        this(format, ledgerKey, coveredLength, entryCount, bloom, entries, coveredLength, new long[0], new long[0]);
+    }
+
+    private ExpenseIdIndex(StorageFormat format, int ledgerKey, long coveredLength, int entryCount, long[] bloom, ByteBuffer entries,
+                           long scannedLength, long[] tailKeys, long[] tailPositions) {
+        this.format = format;
+        this.ledgerKey = ledgerKey;
+        this.coveredLength = coveredLength;
+        this.entryCount = entryCount;
+        this.bloom = bloom;
+        this.entries = entries;
+        this.scannedLength = scannedLength;
+        this.tailKeys = tailKeys;
+        this.tailPositions = tailPositions;
+    }
+
+    long getCoveredLength() {
+        return coveredLength;
+    }
+
+    /**
+     * This index with the rows appended since it was last extended scanned into its in-memory
+     * tail. Only the new rows are read; returns this index when the ledger has not grown.
+     */
+    ExpenseIdIndex withTail(Path ledger, long currentLength) throws IOException {
+        if (currentLength <= scannedLength) {
+            return this;
+        }
+        Builder builder = new Builder();
+        long scanned = format == StorageFormat.BINARY
+                ? scanBinary(ledger, scannedLength, builder)
+                : scanCsv(ledger, scannedLength, Long.MAX_VALUE, builder);
+        if (builder.size == 0 && scanned <= scannedLength) {
+            return this;
+        }
+
+        // An unterminated last CSV line lies past the scanned length and is visited again, so an
+        // earlier copy of it is dropped
+        long[] keys = new long[tailKeys.length + builder.size];
+        long[] positions = new long[keys.length];
+        int size = 0;
+        for (int i = 0; i < tailKeys.length; i++) {
+            if (tailPositions[i] < scannedLength) {
+                keys[size] = tailKeys[i];
+                positions[size++] = tailPositions[i];
+            }
+        }
+        System.arraycopy(builder.keys, 0, keys, size, builder.size);
+        System.arraycopy(builder.positions, 0, positions, size, builder.size);
+        size += builder.size;
+        keys = Arrays.copyOf(keys, size);
+        positions = Arrays.copyOf(positions, size);
+        sort(keys, positions, 0, size - 1);
+        ExpenseIdIndex extended = new ExpenseIdIndex(format, ledgerKey, coveredLength, entryCount, bloom, entries,
+                Math.max(scanned, scannedLength), keys, positions);
+        extended.persisted = persisted;
+        return extended;
+    }
+
+    /**
+     * Whether this index still describes the ledger file: same format, same file (an atomic
+     * replace gives it a new identity) and not shorter than what was indexed.
+     */
+    boolean isUsableFor(Path ledger, StorageFormat format, long currentLength) throws IOException {
+        return this.format == format && ledgerKey == fileKey(ledger) && currentLength >= coveredLength;
+    }
+
+    static long key(String expenseId) {
+        long code = ExpenseIdCodec.encode(expenseId);
+        if (code != ExpenseIdCodec.IRREGULAR) {
+            return code;
+        }
+        // FNV-1a, forced negative so it can never equal a packed id
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : expenseId.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash | Long.MIN_VALUE;
+    }
+
+    boolean mightContain(String expenseId) {
+        long key = key(expenseId);
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1;
+        long bits = (long) bloom.length * 64;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Positions of every indexed row whose key matches the id. Usually one; callers must check
+     * the row really holds the id, since irregular ids are indexed by hash.
+     */
+    long[] find(String expenseId) {
+        long key = key(expenseId);
+        long[] tail = findInTail(key);
+        if (!mightContain(expenseId)) {
+            return tail;
+        }
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries.getLong(middle * ENTRY_SIZE) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int end = low;
+        while (end < entryCount && entries.getLong(end * ENTRY_SIZE) == key) {
+            end++;
+        }
+        long[] positions = Arrays.copyOf(tail, tail.length + end - low);
+        for (int i = low; i < end; i++) {
+            positions[tail.length + i - low] = entries.getLong(i * ENTRY_SIZE + 8);
+        }
+        return positions;
+    }
+
+    private long[] findInTail(long key) {
+        int low = Arrays.binarySearch(tailKeys, key);
+        if (low < 0) {
+            return new long[0];
+        }
+        while (low > 0 && tailKeys[low - 1] == key) low--;
+        int end = low;
+        while (end < tailKeys.length && tailKeys[end] == key) end++;
+        return Arrays.copyOfRange(tailPositions, low, end);
+    }
+
+    // ---------- Persistence ----------
+
+    static ExpenseIdIndex open(Path indexPath) throws IOException {
+        if (!Files.exists(indexPath)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION) {
+                return null;
+            }
+            StorageFormat format = StorageFormat.values()[header.get(6)];
+            int ledgerKey = header.getInt(8);
+            long coveredLength = header.getLong(12);
+            int entryCount = header.getInt(20);
+            long[] bloom = new long[header.getInt(24)];
+
+            ByteBuffer bloomBytes = ByteBuffer.allocate(bloom.length * 8);
+            readFully(channel, bloomBytes, HEADER_SIZE);
+            bloomBytes.flip().asLongBuffer().get(bloom);
+
+            long entriesStart = HEADER_SIZE + (long) bloom.length * 8;
+            MappedByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, entriesStart, (long) entryCount * ENTRY_SIZE);
+            ExpenseIdIndex index = new ExpenseIdIndex(format, ledgerKey, coveredLength, entryCount, bloom, entries);
+            index.persisted = true;
+            return index;
+        }
+    }
+
+    /**
+     * Scans the ledger and returns a fresh index, held in memory until {@link #write} is called.
+     */
+    static ExpenseIdIndex build(Path ledger, StorageFormat format) throws IOException {
+        Builder builder = new Builder();
+        long coveredLength = format == StorageFormat.BINARY
+                ? scanBinary(ledger, 0, builder)
+                : scanCsv(ledger, 0, Long.MAX_VALUE, builder);
+
+        long[] keys = builder.keys();
+        long[] positions = builder.positions();
+        sort(keys, positions, 0, keys.length - 1);
+
+        int bloomWords = Math.max(16, (int) (((long) keys.length * BLOOM_BITS_PER_ENTRY + 63) / 64));
+        long[] bloom = new long[bloomWords];
+        ByteBuffer entries = ByteBuffer.allocate(keys.length * ENTRY_SIZE);
+        for (int i = 0; i < keys.length; i++) {
+            addToBloom(bloom, keys[i]);
+            entries.putLong(keys[i]).putLong(positions[i]);
+        }
+        entries.flip();
+        return new ExpenseIdIndex(format, fileKey(ledger), coveredLength, keys.length, bloom, entries);
+    }
+
+    /**
+     * Writes the covered part of the index to {@code indexPath}, replacing what is there; the
+     * in-memory tail is left out.
+     */
+    void write(Path indexPath) throws IOException {
+        Path temp = Files.createTempFile(indexPath.toAbsolutePath().getParent(), indexPath.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + bloom.length * 8);
+            header.putInt(MAGIC).putShort(VERSION).put((byte) format.ordinal()).put((byte) 0)
+                    .putInt(ledgerKey).putLong(coveredLength).putInt(entryCount).putInt(bloom.length);
+            header.position(HEADER_SIZE);
+            for (long word : bloom) {
+                header.putLong(word);
+            }
+            header.flip();
+            writeFully(channel, header, 0);
+            writeFully(channel, entries.duplicate(), HEADER_SIZE + (long) bloom.length * 8);
+        }
+        Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        persisted = true;
+    }
+
+    boolean isPersisted() {
+        return persisted;
+    }
+
+    // Sorts the pairs by key; ids are time based, so rows mostly arrive close to key order
+    private static void sort(long[] keys, long[] positions, int low, int high) {
+        while (low < high) {
+            if (high - low < 16) {
+                for (int i = low + 1; i <= high; i++) {
+                    for (int j = i; j > low && keys[j - 1] > keys[j]; j--) {
+                        swap(keys, positions, j - 1, j);
+                    }
+                }
+                return;
+            }
+            long pivot = keys[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) swap(keys, positions, i++, j--);
+            }
+            // Recurse into the smaller half to bound the stack depth
+            if (j - low < high - i) {
+                sort(keys, positions, low, j);
+                low = i;
+            } else {
+                sort(keys, positions, i, high);
+                high = j;
+            }
+        }
+    }
+
+    private static void swap(long[] keys, long[] positions, int a, int b) {
+        long key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        long position = positions[a];
+        positions[a] = positions[b];
+        positions[b] = position;
+    }
+
+    // ---------- Ledger scanning ----------
+
+    interface RowVisitor {
+        void row(long key, long position);
+    }
+
+    /**
+     * Visits every data row of a CSV ledger that starts in [from, to), reporting its id key and
+     * byte offset. Returns the offset just past the last complete line; an unterminated last line
+     * is still visited but left outside the returned length.
+     */
+    static long scanCsv(Path ledger, long from, long to, RowVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(ledger, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long fileSize = channel.size();
+            long end = Math.min(to, fileSize);
+            long bufferStart = from;
+            boolean headerPending = from == 0;
+
+            while (bufferStart < end) {
+                buffer.clear();
+                int read = channel.read(buffer, bufferStart);
+                if (read <= 0) break;
+
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) != '\n') continue;
+                    if (headerPending) {
+                        headerPending = false;
+                    } else if (bufferStart + lineStart < end) {
+                        visitLine(buffer, lineStart, i, bufferStart, visitor);
+                    }
+                    lineStart = i + 1;
+                }
+                if (bufferStart + read >= fileSize) {
+                    if (lineStart < read && !headerPending) {
+                        visitLine(buffer, lineStart, read, bufferStart, visitor);
+                    }
+                    return bufferStart + lineStart;
+                }
+                if (lineStart == 0) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    continue;
+                }
+                bufferStart += lineStart;
+            }
+            return bufferStart;
+        }
+    }
+
+    private static void visitLine(ByteBuffer buffer, int start, int end, long bufferStart, RowVisitor visitor) {
+        int comma = start;
+        while (comma < end && buffer.get(comma) != ',') comma++;
+        if (comma > start && comma < end) {
+            visitor.row(keyOf(buffer, start, comma), bufferStart + start);
+        }
+    }
+
+    /**
+     * Visits every live record of a binary ledger from record {@code from} on. Returns the record count.
+     */
+    static long scanBinary(Path ledger, long from, RowVisitor visitor) throws IOException {
+        return ExpenseBinaryStore.scanIds(ledger, from, visitor);
+    }
+
+    private static long keyOf(ByteBuffer buffer, int start, int end) {
+        long code = ExpenseIdCodec.encode(buffer, start, end);
+        if (code != ExpenseIdCodec.IRREGULAR) {
+            return code;
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return key(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    // ---------- Helpers ----------
+
+    private static final class Builder implements RowVisitor {
+        private long[] keys = new long[1024];
+        private long[] positions = new long[1024];
+        private int size;
+
+        @Override
+        public void row(long key, long position) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            keys[size] = key;
+            positions[size++] = position;
+        }
+
+        long[] keys() {
+            return Arrays.copyOf(keys, size);
+        }
+
+        long[] positions() {
+            return Arrays.copyOf(positions, size);
+        }
+    }
+
+    private static void addToBloom(long[] bloom, long key) {
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1;
+        long bits = (long) bloom.length * 64;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    static int fileKey(Path ledger) throws IOException {
+        Object key = Files.readAttributes(ledger, BasicFileAttributes.class).fileKey();
+        return Objects.hashCode(key);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of expense index");
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.example.service;
+
+import org.example.model.ExpenseRollup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persistent sidecar ({@code <csvId>.rollup}) holding a ledger's {@link ExpenseRollup}: a snapshot
+ * followed by the changes appended as the ledger is written, like the ledger's own update log.
+ * <pre>
+ * header   16 bytes  magic "SEMR", version (short), reserved (short), snapshot length (long)
+ * entries  bucket count (int), buckets, ledger length (long), ledger last modified (long)
+ * bucket   month (int), row count (long), total, min and max cents (long each), category (UTF)
+ * </pre>
+ * The first entry is the snapshot; each later one is the change made by one write, with removed
+ * rows as negative counts and totals whose min and max leave the bucket's alone. Every entry ends
+ * with the ledger's length and last-modified time as {@link ExpenseFileService} reports them
+ * after that write, so the last 16 bytes tell whether the rollup still describes the ledger. A
+ * ledger changed by anything else, or an append cut short, makes the rollup rebuild.
+ */
+final class ExpenseRollupFile {
+    private static final int MAGIC = 0x53454D52; // "SEMR"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int STAMP_SIZE = 16;
+    // Appended changes are folded into a new snapshot once the file passes both of these
+    private static final long COMPACTION_MIN_SIZE = 64 * 1024;
+    private static final int COMPACTION_FACTOR = 4;
+
+    private ExpenseRollupFile() {
+    }
+
+    /**
+     * Whether the last entry was written for the ledger in this state.
+     */
+    static boolean describes(Path path, long ledgerLength, long ledgerModified) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 4 + STAMP_SIZE || !hasHeader(channel)) {
+                return false;
+            }
+            ByteBuffer stamp = ByteBuffer.allocate(STAMP_SIZE);
+            readFully(channel, stamp, size - STAMP_SIZE);
+            return stamp.getLong(0) == ledgerLength && stamp.getLong(8) == ledgerModified;
+        }
+    }
+
+    /**
+     * The rollup with every appended change applied, or null when the file is missing, from
+     * another version, cut short, or no longer describes the ledger.
+     */
+    static ExpenseRollup read(Path path, long ledgerLength, long ledgerModified) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (bytes.limit() < HEADER_SIZE || bytes.getInt(0) != MAGIC || bytes.getShort(4) != VERSION) {
+            return null;
+        }
+
+        ExpenseRollup rollup = new ExpenseRollup();
+        boolean current = false;
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.array(), HEADER_SIZE, bytes.limit() - HEADER_SIZE))) {
+            while (in.available() > 0) {
+                int buckets = in.readInt();
+                for (int i = 0; i < buckets; i++) {
+                    int month = in.readInt();
+                    long count = in.readLong();
+                    long totalCents = in.readLong();
+                    long minCents = in.readLong();
+                    long maxCents = in.readLong();
+                    rollup.add(month, in.readUTF(), count, totalCents, minCents, maxCents);
+                }
+                long length = in.readLong();
+                long modified = in.readLong();
+                current = length == ledgerLength && modified == ledgerModified;
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+        return current ? rollup : null;
+    }
+
+    /**
+     * Replaces the file with a snapshot of the rollup, stamped with the ledger's current state.
+     */
+    static void write(Path path, ExpenseRollup rollup, long ledgerLength, long ledgerModified) throws IOException {
+        byte[] entry = entry(null, rollup, ledgerLength, ledgerModified);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + entry.length);
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(HEADER_SIZE + entry.length).put(entry).flip();
+
+        // Readers may rebuild concurrently, so each gets its own temporary file
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            writeFully(channel, buffer, 0);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Appends the change made by one write: the rows it removed and the rows it added, either of
+     * which may be null. The caller holds the ledger's exclusive lock and checked with
+     * {@link #describes} that the file matched the ledger before the write.
+     */
+    static void append(Path path, ExpenseRollup removed, ExpenseRollup added, long ledgerLength, long ledgerModified) throws IOException {
+        ByteBuffer entry = ByteBuffer.wrap(entry(removed, added, ledgerLength, ledgerModified));
+        long size;
+        long snapshotLength;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            snapshotLength = header.getLong(8);
+            size = channel.size() + entry.remaining();
+            writeFully(channel, entry, channel.size());
+        }
+
+        if (size > COMPACTION_MIN_SIZE && size > snapshotLength * COMPACTION_FACTOR) {
+            ExpenseRollup rollup = read(path, ledgerLength, ledgerModified);
+            if (rollup == null) {
+                Files.deleteIfExists(path);
+            } else {
+                write(path, rollup, ledgerLength, ledgerModified);
+            }
+        }
+    }
+
+    private static byte[] entry(ExpenseRollup removed, ExpenseRollup added, long ledgerLength, long ledgerModified) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt((removed == null ? 0 : removed.getBucketCount()) + (added == null ? 0 : added.getBucketCount()));
+            if (removed != null) {
+                removed.forEach((month, category, count, totalCents, minCents, maxCents) ->
+                        writeBucket(out, month, category, -count, -totalCents, Long.MAX_VALUE, Long.MIN_VALUE));
+            }
+            if (added != null) {
+                added.forEach((month, category, count, totalCents, minCents, maxCents) ->
+                        writeBucket(out, month, category, count, totalCents, minCents, maxCents));
+            }
+            out.writeLong(ledgerLength);
+            out.writeLong(ledgerModified);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeBucket(DataOutputStream out, int month, String category, long count,
+                                    long totalCents, long minCents, long maxCents) {
+        try {
+            out.writeInt(month);
+            out.writeLong(count);
+            out.writeLong(totalCents);
+            out.writeLong(minCents);
+            out.writeLong(maxCents);
+            out.writeUTF(category);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean hasHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(6);
+        readFully(channel, header, 0);
+        return header.getInt(0) == MAGIC && header.getShort(4) == VERSION;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of expense rollup");
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
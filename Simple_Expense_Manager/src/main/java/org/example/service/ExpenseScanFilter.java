@@ -0,0 +1,94 @@
+package org.example.service;
+
+import org.example.model.ExpenseLedger;
+import org.example.model.ExpenseQuery;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * An {@link ExpenseQuery} as the scanners apply it, cheapest test first: the category by
+ * dictionary id (each distinct name is compared with the query once), then the raw
+ * {@code yyyy-MM-dd} bytes of the date against the bounds, both before the amount is parsed or
+ * the id decoded, and finally the parsed amount and day. The scan stops once the given number of
+ * rows has been accepted. Not thread-safe, like the parser.
+ */
+final class ExpenseScanFilter {
+    private final ExpenseQuery query;
+    private final ExpenseLedger dictionary;
+    // Per category id (a ledger holds at most 32768): 0 unknown, 1 match, 2 no match
+    private final byte[] categoryMatches;
+    // Bounds as date bytes, or null where the column cannot be compared byte for byte
+    private final byte[] startBytes;
+    private final byte[] endBytes;
+    private final long startDay;
+    private final long endDay;
+    private final int limit;
+    private int accepted;
+
+    ExpenseScanFilter(ExpenseQuery query, ExpenseLedger dictionary, int limit) {
+        this.query = query;
+        this.dictionary = dictionary;
+        this.categoryMatches = query.hasCategories() ? new byte[Short.MAX_VALUE + 1] : null;
+        this.startBytes = dateBytes(query.getStartDate());
+        this.endBytes = dateBytes(query.getEndDate());
+        this.startDay = query.getStartDay();
+        this.endDay = query.getEndDay();
+        this.limit = limit;
+    }
+
+    // Four-digit years print as exactly the ten bytes a ledger row holds
+    private static byte[] dateBytes(LocalDate date) {
+        if (date == null || date.getYear() < 0 || date.getYear() > 9999) {
+            return null;
+        }
+        return date.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    boolean acceptsCategory(int categoryId) {
+        if (categoryMatches == null) {
+            return true;
+        }
+        if (categoryMatches[categoryId] == 0) {
+            categoryMatches[categoryId] = (byte) (query.matchesCategory(dictionary.getCategoryName(categoryId)) ? 1 : 2);
+        }
+        return categoryMatches[categoryId] == 1;
+    }
+
+    /**
+     * Compares the date column's first ten bytes with the bounds. Anything that does not look
+     * like a date is let through, for the parser to reject and report.
+     */
+    boolean acceptsDate(ByteBuffer buffer, int start, int end) {
+        if (end - start < 10) {
+            return true;
+        }
+        return (startBytes == null || compare(buffer, start, startBytes) >= 0)
+                && (endBytes == null || compare(buffer, start, endBytes) <= 0);
+    }
+
+    /**
+     * The final test on the parsed row; a row passing it counts towards the limit, and none
+     * passes once the limit is reached.
+     */
+    boolean accepts(long cents, long epochDay) {
+        if (accepted >= limit || epochDay < startDay || epochDay > endDay || !query.matchesCents(cents)) {
+            return false;
+        }
+        accepted++;
+        return true;
+    }
+
+    boolean isDone() {
+        return accepted >= limit;
+    }
+
+    private static int compare(ByteBuffer buffer, int start, byte[] bound) {
+        for (int i = 0; i < bound.length; i++) {
+            int difference = buffer.get(start + i) - bound[i];
+            if (difference != 0) return difference;
+        }
+        return 0;
+    }
+}
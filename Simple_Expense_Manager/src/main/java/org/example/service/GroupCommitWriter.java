@@ -0,0 +1,153 @@
+package org.example.service;
+
+import org.example.model.Expense;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Queues appends for one ledger and writes them from a single thread in batches. A batch starts
+ * with the first queued record and closes when it is full or the maximum latency has passed
+ * since that record arrived; it is written with one call to the sink, and every future in it
+ * completes once the sink returns. A writer that has nothing queued for {@code idleNanos} stops
+ * its thread, tells {@code onIdle}, and from then on refuses records like a closed one.
+ */
+class GroupCommitWriter {
+    interface BatchSink {
+        void write(List<Expense> batch) throws IOException;
+    }
+
+    private static final PendingAppend CLOSE = new PendingAppend(null, null);
+
+    private final BlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+    private final BatchSink sink;
+    private final long maxLatencyNanos;
+    private final int maxBatchSize;
+    private final long idleNanos;
+    private final Consumer<GroupCommitWriter> onIdle;
+    private final Thread thread;
+    private boolean closed; // guarded by this
+
+    GroupCommitWriter(String name, BatchSink sink, long maxLatencyNanos, int maxBatchSize, long idleNanos,
+                      Consumer<GroupCommitWriter> onIdle) {
+        this.sink = sink;
+        this.maxLatencyNanos = maxLatencyNanos;
+        this.maxBatchSize = maxBatchSize;
+        this.idleNanos = idleNanos;
+        this.onIdle = onIdle;
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues the expense, or returns null when the writer is closed or has stopped for being idle.
+     */
+    synchronized CompletableFuture<Void> submit(Expense expense) {
+        if (closed) {
+            return null;
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        queue.add(new PendingAppend(expense, future));
+        return future;
+    }
+
+    /**
+     * Writes everything queued so far and stops the writer thread.
+     */
+    void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            queue.add(CLOSE);
+        }
+        thread.join();
+    }
+
+    // Stops taking records if none are queued; submit and this share the lock, so none slip in between
+    private synchronized boolean retireIfIdle() {
+        if (queue.isEmpty()) {
+            closed = true;
+        }
+        return closed;
+    }
+
+    private void run() {
+        List<PendingAppend> batch = new ArrayList<>(maxBatchSize);
+        boolean running = true;
+        while (running) {
+            try {
+                PendingAppend first = queue.poll(idleNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    if (retireIfIdle()) {
+                        onIdle.accept(this);
+                        break;
+                    }
+                    continue;
+                }
+                if (first == CLOSE) {
+                    break;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxLatencyNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingAppend next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    if (next == CLOSE) {
+                        running = false;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            flush(batch);
+        }
+
+        // Whatever was submitted while closing is still written
+        List<PendingAppend> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.remove(CLOSE);
+        while (!rest.isEmpty()) {
+            List<PendingAppend> chunk = rest.subList(0, Math.min(maxBatchSize, rest.size()));
+            batch.addAll(chunk);
+            chunk.clear();
+            flush(batch);
+        }
+    }
+
+    private void flush(List<PendingAppend> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Expense> expenses = new ArrayList<>(batch.size());
+        for (PendingAppend pending : batch) {
+            expenses.add(pending.expense);
+        }
+        try {
+            sink.write(expenses);
+            batch.forEach(pending -> pending.future.complete(null));
+        } catch (IOException | RuntimeException e) {
+            batch.forEach(pending -> pending.future.completeExceptionally(e));
+        }
+        batch.clear();
+    }
+
+    private static class PendingAppend {
+        final Expense expense;
+        final CompletableFuture<Void> future;
+
+        PendingAppend(Expense expense, CompletableFuture<Void> future) {
+            this.expense = expense;
+            this.future = future;
+        }
+    }
+}
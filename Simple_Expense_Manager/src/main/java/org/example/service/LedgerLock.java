@@ -0,0 +1,121 @@
+package org.example.service;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Readers/writer lock for one ledger that also holds across processes, through a
+ * {@link FileLock} on a sidecar {@code <csvId>.lock} file. The sidecar is locked rather than the
+ * ledger itself because full rewrites replace the ledger file, and because closing any channel
+ * to a file drops the process's locks on it. The user logs share {@code users.lock} the same way. Within the JVM a
+ * ReentrantReadWriteLock orders threads, and all readers share a single shared FileLock, since
+ * the JVM refuses overlapping FileLocks on one file. Instances are shared per lock file across
+ * the whole JVM for the same reason.
+ */
+class LedgerLock {
+    private static final Map<Path, LedgerLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private FileLock sharedLock;
+    private int sharedHolders;
+    private FileLock exclusiveLock;
+
+    private LedgerLock(Path path) {
+        this.path = path;
+    }
+
+    static LedgerLock forFile(Path lockFile) {
+        return LOCKS.computeIfAbsent(lockFile.toAbsolutePath().normalize(), LedgerLock::new);
+    }
+
+    void lockShared() throws IOException {
+        lock.readLock().lock();
+        if (lock.isWriteLockedByCurrentThread()) {
+            return; // the exclusive file lock already covers this thread
+        }
+        try {
+            synchronized (this) {
+                if (sharedHolders == 0) {
+                    sharedLock = channel().lock(0, Long.MAX_VALUE, true);
+                }
+                sharedHolders++;
+            }
+        } catch (IOException | RuntimeException e) {
+            lock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    void unlockShared() {
+        try {
+            if (!lock.isWriteLockedByCurrentThread()) {
+                synchronized (this) {
+                    if (--sharedHolders == 0) {
+                        release(sharedLock);
+                        sharedLock = null;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void lockExclusive() throws IOException {
+        lock.writeLock().lock();
+        if (lock.getWriteHoldCount() > 1) {
+            return;
+        }
+        try {
+            FileChannel lockChannel;
+            synchronized (this) {
+                lockChannel = channel();
+            }
+            exclusiveLock = lockChannel.lock();
+        } catch (IOException | RuntimeException e) {
+            lock.writeLock().unlock();
+            throw e;
+        }
+    }
+
+    void unlockExclusive() {
+        try {
+            if (lock.getWriteHoldCount() == 1) {
+                release(exclusiveLock);
+                exclusiveLock = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    boolean isHeldExclusively() {
+        return lock.isWriteLockedByCurrentThread();
+    }
+
+    // Kept open for the life of the JVM; reopened if an interrupt closed it
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+
+    private static void release(FileLock fileLock) {
+        try {
+            if (fileLock != null && fileLock.isValid()) {
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            System.err.println("Error releasing ledger lock: " + e.getMessage());
+        }
+    }
+}
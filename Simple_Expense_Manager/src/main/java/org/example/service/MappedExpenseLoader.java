@@ -0,0 +1,125 @@
+package org.example.service;
+
+import org.example.model.ExpenseLedger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads very large ledgers by memory-mapping the file, cutting it into chunks at line boundaries
+ * and parsing the chunks in parallel on the common fork-join pool. Each chunk fills its own ledger
+ * and the ledgers are appended in file order, so the outcome is identical to the sequential loader.
+ */
+class MappedExpenseLoader {
+    // Each chunk is mapped separately, which keeps every mapping well under the 2 GiB limit
+    private static final long MAX_CHUNK_SIZE = 128L * 1024 * 1024;
+    private static final long MIN_CHUNK_SIZE = 4L * 1024 * 1024;
+
+    private final Path path;
+    private final String userId;
+
+    MappedExpenseLoader(Path path, String userId) {
+        this.path = path;
+        this.userId = userId;
+    }
+
+    ExpenseLedger load() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long dataStart = nextLineStart(channel, 0, size); // skip header
+            if (dataStart >= size) {
+                return new ExpenseLedger(userId);
+            }
+
+            long[] bounds = chunkBounds(channel, dataStart, size);
+            try {
+                return ForkJoinPool.commonPool().invoke(new ChunkTask(channel, bounds, 0, bounds.length - 1));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static long[] chunkBounds(FileChannel channel, long start, long end) throws IOException {
+        int parallelism = ForkJoinPool.commonPool().getParallelism();
+        long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, (end - start) / (parallelism * 4L)));
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        long position = start;
+        while (position < end) {
+            position = position + chunkSize >= end ? end : nextLineStart(channel, position + chunkSize, end);
+            bounds.add(position);
+        }
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    // Returns the offset just past the first newline at or after position, or end if there is none
+    private static long nextLineStart(FileChannel channel, long position, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < end) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return end;
+    }
+
+    // Never serialized; it is Serializable only because ForkJoinTask is
+    private class ChunkTask extends RecursiveTask<ExpenseLedger> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, long[] bounds, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ExpenseLedger compute() {
+            if (to - from == 1) {
+                return parseChunk(bounds[from], bounds[to]);
+            }
+
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(channel, bounds, from, middle);
+            ChunkTask right = new ChunkTask(channel, bounds, middle, to);
+            right.fork();
+            ExpenseLedger ledger = left.compute();
+            ledger.addAll(right.join());
+            return ledger;
+        }
+
+        private ExpenseLedger parseChunk(long start, long end) {
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                ExpenseLedger ledger = new ExpenseLedger(userId);
+                new ExpenseCsvParser(ledger).parseLines(buffer, 0, buffer.limit());
+                return ledger;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
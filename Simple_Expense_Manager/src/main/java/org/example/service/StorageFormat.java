@@ -0,0 +1,18 @@
+package org.example.service;
+
+/**
+ * On-disk representation of expense ledgers. CSV stays the default and the import/export format;
+ * BINARY stores fixed-width records (see {@link ExpenseBinaryStore}).
+ */
+public enum StorageFormat {
+    CSV,
+    BINARY;
+
+    /**
+     * Reads the {@code expense.storage.format} system property, defaulting to CSV.
+     */
+    public static StorageFormat fromSystemProperty() {
+        String value = System.getProperty("expense.storage.format", "csv");
+        return value.equalsIgnoreCase("binary") ? BINARY : CSV;
+    }
+}
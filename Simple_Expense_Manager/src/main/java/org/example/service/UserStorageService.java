@@ -2,90 +2,489 @@ package org.example.service;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.example.metrics.Metrics;
+import org.example.metrics.OperationMetrics;
 import org.example.model.User;
 import org.example.exception.DuplicateUserException;
 import org.example.exception.UserNotFoundException;
 import org.example.exception.ValidationException;
 
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Stores accounts as a snapshot ({@code users.json}, the original pretty-printed array) plus
+ * append-only JSON Lines logs holding registrations made since the snapshot. With
+ * {@code -Dexpense.users.shards=N} the log is hash-sharded by username into
+ * {@code users-0.jsonl .. users-(N-1).jsonl}; otherwise it is {@code users.jsonl}. Once the logs
+ * grow past {@link #COMPACTION_THRESHOLD} entries they are folded into a new snapshot that is
+ * swapped in atomically. An existing users.json needs no conversion: it is read as the snapshot.
+ * One instance can back concurrent server requests: lookups share a read lock, and a
+ * registration holds the write lock only to check and publish its users, not while its log
+ * append is forced to disk. Appends and compaction hold an exclusive lock on {@code users.lock},
+ * so several processes can share the files.
+ */
 public class UserStorageService {
     private static final String USERS_JSON_FILE = "users.json";
+    private static final int COMPACTION_THRESHOLD = 1000;
+    private static final OperationMetrics COMPACT = Metrics.operation("userStorage.compact");
+    private static final OperationMetrics REGISTER = Metrics.operation("userStorage.register");
+    private static final OperationMetrics LOGIN = Metrics.operation("userStorage.login");
+    private static final OperationMetrics GET_BY_CSV_ID = Metrics.operation("userStorage.getUserByCsvId");
+    private static final OperationMetrics USER_EXISTS = Metrics.operation("userStorage.userExists");
+    private static final OperationMetrics LOAD = Metrics.operation("userStorage.load");
+
     private Gson gson;
+    private final Gson logGson = new Gson(); // one record per line, no pretty printing
+    private final int shardCount;
+
+    // Registry loaded once and reloaded only when the user files change outside this service
+    private List<User> users;
+    private Map<String, User> usersByUsername;
+    private Map<String, User> usersByCsvId;
+    private int loggedUsers;
+    private FileState loadedState;
+    // Logs seen at the last load plus this configuration's own, so checking for changes needs no directory listing
+    private List<Path> knownLogs = List.of();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Usernames of registrations whose log append is still in flight, guarded by the write lock
+    private final Set<String> pendingUsernames = new HashSet<>();
+    // Appends and compaction take turns, across processes too (see LedgerLock)
+    private final LedgerLock logLock = LedgerLock.forFile(Path.of("users.lock"));
 
     public UserStorageService() {
+        this(Integer.getInteger("expense.users.shards", 1));
+    }
+
+    public UserStorageService(int shardCount) {
         this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.shardCount = Math.max(1, shardCount);
+    }
+
+    private Path logPath(int shard) {
+        return Path.of(shardCount == 1 ? "users.jsonl" : "users-" + shard + ".jsonl");
+    }
+
+    // Every log on disk, whatever shard count wrote it, so changing the setting loses nobody
+    private List<Path> logPaths() {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Path.of("."), "users{,-*}.jsonl")) {
+            stream.forEach(paths::add);
+        } catch (IOException e) {
+            System.err.println("Error listing user logs: " + e.getMessage());
+        }
+        paths.sort(null);
+        return paths;
+    }
+
+    private int shardOf(String username) {
+        return Math.floorMod(usernameKey(username).hashCode(), shardCount);
+    }
+
+    private boolean isLoaded() {
+        return users != null && loadedState.equals(fileState());
+    }
+
+    // Takes the read lock, reloading first under the write lock if the files have changed
+    private void readLoaded() {
+        lock.readLock().lock();
+        if (isLoaded()) {
+            return;
+        }
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            ensureLoaded();
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (isLoaded()) {
+            return;
+        }
+
+        OperationMetrics.Sample sample = LOAD.start();
+        List<Path> logs = logPaths();
+        Set<Path> watched = new TreeSet<>(logs);
+        for (int shard = 0; shard < shardCount; shard++) {
+            watched.add(logPath(shard));
+        }
+        knownLogs = new ArrayList<>(watched);
+        FileState state = fileState();
+        users = new ArrayList<>();
+        usersByUsername = new HashMap<>();
+        usersByCsvId = new HashMap<>();
+        loggedUsers = 0;
+
+        for (User user : loadSnapshot()) {
+            if (index(user)) {
+                users.add(user);
+            }
+        }
+        for (Path log : logs) {
+            for (User user : loadLog(log)) {
+                // A crash between snapshot swap and log truncation leaves users in both places
+                if (index(user)) {
+                    users.add(user);
+                    loggedUsers++;
+                }
+            }
+        }
+        loadedState = state;
+        sample.rows(users.size()).bytesRead(state.size).success().close();
+    }
+
+    // Returns false when the username is already taken; first registration wins
+    private boolean index(User user) {
+        if (usersByUsername.putIfAbsent(usernameKey(user.getUsername()), user) != null) {
+            return false;
+        }
+        if (user.getCsvId() != null) {
+            usersByCsvId.putIfAbsent(user.getCsvId(), user);
+        }
+        return true;
+    }
+
+    private static String usernameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    // Stats the snapshot and the known logs; a missing file counts as empty
+    private FileState fileState() {
+        File snapshot = new File(USERS_JSON_FILE);
+        long lastModified = snapshot.lastModified();
+        long size = snapshot.length();
+        for (Path path : knownLogs) {
+            File log = path.toFile();
+            lastModified = Math.max(lastModified, log.lastModified());
+            size += log.length();
+        }
+        return new FileState(lastModified, size);
+    }
+
+    private void rememberFileState() {
+        loadedState = fileState();
+    }
+
+    // Streams the snapshot array one element at a time instead of building the whole tree
+    private List<User> loadSnapshot() {
+        List<User> snapshot = new ArrayList<>();
+        Path path = Path.of(USERS_JSON_FILE);
+        if (!Files.exists(path)) {
+            return snapshot;
+        }
+
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(path))) {
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                return snapshot;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                snapshot.add(gson.fromJson(reader, User.class));
+            }
+            reader.endArray();
+        } catch (IOException | JsonParseException e) {
+            System.err.println("Error loading users: " + e.getMessage());
+        }
+        return snapshot;
     }
 
-    private List<User> loadUsers() {
-        try (FileReader reader = new FileReader(USERS_JSON_FILE)) {
-            Type listType = new TypeToken<List<User>>(){}.getType();
-            List<User> users = gson.fromJson(reader, listType);
-            return users != null ? users : new ArrayList<>();
+    private List<User> loadLog(Path path) {
+        List<User> logged = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return logged;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                try {
+                    logged.add(gson.fromJson(line, User.class));
+                } catch (JsonParseException e) {
+                    // Most likely a record torn by a crash mid-append
+                    System.err.println("Skipping unreadable user record: " + e.getMessage());
+                }
+            }
         } catch (IOException e) {
-            // File doesn't exist yet, return empty list
-            return new ArrayList<>();
+            System.err.println("Error loading users: " + e.getMessage());
+        }
+        return logged;
+    }
+
+    // One write and one fsync per shard touched, however many users are appended; returns the bytes written
+    private long appendToLog(List<User> newUsers) throws IOException {
+        Map<Integer, StringBuilder> records = new TreeMap<>();
+        for (User user : newUsers) {
+            records.computeIfAbsent(shardOf(user.getUsername()), shard -> new StringBuilder())
+                    .append(logGson.toJson(user)).append('\n');
+        }
+        long written = 0;
+        for (Map.Entry<Integer, StringBuilder> entry : records.entrySet()) {
+            written += appendToLog(logPath(entry.getKey()), entry.getValue().toString());
         }
+        return written;
     }
 
-    private void saveUsers(List<User> users) throws IOException {
-        try (FileWriter writer = new FileWriter(USERS_JSON_FILE)) {
-            gson.toJson(users, writer);
+    // Called under the log lock, so no other process appends or compacts in the meantime
+    private long appendToLog(Path log, String records) throws IOException {
+        try (FileChannel channel = FileChannel.open(log,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long size = channel.size();
+            if (size > 0) {
+                // Start on a fresh line if an earlier append was torn
+                try (FileChannel reader = FileChannel.open(log, StandardOpenOption.READ)) {
+                    ByteBuffer last = ByteBuffer.allocate(1);
+                    reader.read(last, size - 1);
+                    if (last.get(0) != '\n') {
+                        records = "\n" + records;
+                    }
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            return buffer.capacity();
+        }
+    }
+
+    /**
+     * Writes every user to a new snapshot, swaps it in atomically and then empties the logs. The
+     * log lock is held from the moment the logs are read until they are emptied, so a
+     * registration appended by another process is either in the snapshot or still in its log.
+     */
+    public void compact() throws IOException {
+        logLock.lockExclusive();
+        try {
+            lock.writeLock().lock();
+            try {
+                compactLocked();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            logLock.unlockExclusive();
+        }
+    }
+
+    private void compactLocked() throws IOException {
+        try (OperationMetrics.Sample sample = COMPACT.start()) {
+            // Read back from disk under the lock rather than trusting the registry
+            List<Path> logs = logPaths();
+            users = null;
+            ensureLoaded();
+
+            Path target = Path.of(USERS_JSON_FILE);
+            Path temp = Path.of(USERS_JSON_FILE + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp);
+                 JsonWriter jsonWriter = new JsonWriter(writer)) {
+                jsonWriter.setIndent("  ");
+                jsonWriter.beginArray();
+                for (User user : users) {
+                    gson.toJson(user, User.class, jsonWriter);
+                }
+                jsonWriter.endArray();
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Only the logs just folded in; nobody could have appended to them since
+            for (Path log : logs) {
+                Files.deleteIfExists(log);
+            }
+            loggedUsers = 0;
+            rememberFileState();
+            if (Metrics.ENABLED) {
+                sample.rows(users.size()).bytesWritten(Files.size(target));
+            }
+            sample.success();
         }
     }
 
     public void register(User user) throws DuplicateUserException, IOException, ValidationException {
-        List<User> users = loadUsers();
-        
-        boolean exists = users.stream()
-                .anyMatch(u -> u.getUsername().equalsIgnoreCase(user.getUsername()));
-        
-        if (exists) {
-            throw new DuplicateUserException("Username '" + user.getUsername() + "' already exists");
-        }
-        
-        // Generate unique CSV ID
-        String csvId = "CSV_" + UUID.randomUUID().toString().replace("-", "").substring(0, 12).toUpperCase();
-        User newUser = new User(user.getName(), user.getUsername(), user.getPassword(), user.getUserId(), csvId);
-        
-        users.add(newUser);
-        saveUsers(users);
+        registerAll(List.of(user));
+    }
+
+    /**
+     * Registers a batch of users with a single log append, compacting at most once afterwards.
+     * Nobody is registered if any username is already taken or repeated within the batch.
+     *
+     * @return the stored users, carrying their assigned CSV IDs
+     */
+    public List<User> registerAll(List<User> newUsers) throws DuplicateUserException, IOException, ValidationException {
+        try (OperationMetrics.Sample sample = REGISTER.start()) {
+            List<String> usernames = new ArrayList<>(newUsers.size());
+            List<User> created = new ArrayList<>(newUsers.size());
+            lock.writeLock().lock();
+            try {
+                ensureLoaded();
+                for (User user : newUsers) {
+                    String key = usernameKey(user.getUsername());
+                    if (usersByUsername.containsKey(key) || pendingUsernames.contains(key) || usernames.contains(key)) {
+                        throw new DuplicateUserException("Username '" + user.getUsername() + "' already exists");
+                    }
+                    usernames.add(key);
+                }
+                for (User user : newUsers) {
+                    // Generate unique CSV ID
+                    String csvId = "CSV_" + UUID.randomUUID().toString().replace("-", "").substring(0, 12).toUpperCase();
+                    created.add(new User(user.getName(), user.getUsername(), user.getPassword(), user.getUserId(), csvId));
+                }
+                // Reserved so a concurrent registration of the same name fails while this one is written
+                pendingUsernames.addAll(usernames);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            long written = -1;
+            boolean compact;
+            // Published before the log lock is released, so appends are published in file order
+            logLock.lockExclusive();
+            try {
+                written = appendToLog(created);
+            } finally {
+                lock.writeLock().lock();
+                try {
+                    pendingUsernames.removeAll(usernames);
+                    compact = written >= 0 && publish(created, written);
+                } finally {
+                    lock.writeLock().unlock();
+                    logLock.unlockExclusive();
+                }
+            }
+            sample.rows(created.size());
+
+            if (compact) {
+                compact();
+            }
+            sample.success();
+            return created;
+        }
+    }
+
+    /**
+     * Adds freshly logged users to the registry, which a reload since the append may already
+     * hold. The files are only marked as read when the append is the only change since they were
+     * last read, so another process's registrations are picked up by a reload.
+     * Returns whether the logs have grown enough to compact.
+     */
+    private boolean publish(List<User> created, long written) {
+        boolean unchanged = fileState().size == loadedState.size + written;
+        for (User user : created) {
+            if (index(user)) {
+                users.add(user);
+                loggedUsers++;
+            }
+        }
+        if (unchanged) {
+            rememberFileState();
+        }
+        return loggedUsers >= COMPACTION_THRESHOLD;
     }
 
     public User login(String username, String password) throws UserNotFoundException, IOException {
-        List<User> users = loadUsers();
-        
-        User user = users.stream()
-                .filter(u -> u.getUsername().equalsIgnoreCase(username))
-                .findFirst()
-                .orElseThrow(() -> new UserNotFoundException("User with username '" + username + "' not found"));
-        
-        if (!user.checkPassword(password)) {
-            throw new UserNotFoundException("Invalid password");
+        try (OperationMetrics.Sample sample = LOGIN.start()) {
+            User user;
+            readLoaded();
+            try {
+                user = usersByUsername.get(usernameKey(username));
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (user == null) {
+                throw new UserNotFoundException("User with username '" + username + "' not found");
+            }
+
+            if (!user.checkPassword(password)) {
+                throw new UserNotFoundException("Invalid password");
+            }
+
+            sample.success();
+            return user;
         }
-        
-        return user;
     }
 
     public User getUserByCsvId(String csvId) throws UserNotFoundException, IOException {
-        List<User> users = loadUsers();
-        
-        return users.stream()
-                .filter(u -> u.getCsvId().equals(csvId))
-                .findFirst()
-                .orElseThrow(() -> new UserNotFoundException("User with CSV ID '" + csvId + "' not found"));
+        try (OperationMetrics.Sample sample = GET_BY_CSV_ID.start()) {
+            User user;
+            readLoaded();
+            try {
+                user = usersByCsvId.get(csvId);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (user == null) {
+                throw new UserNotFoundException("User with CSV ID '" + csvId + "' not found");
+            }
+            sample.success();
+            return user;
+        }
     }
 
     public boolean userExists(String username) throws IOException {
-        List<User> users = loadUsers();
-        return users.stream()
-                .anyMatch(u -> u.getUsername().equalsIgnoreCase(username));
+        try (OperationMetrics.Sample sample = USER_EXISTS.start()) {
+            boolean exists;
+            readLoaded();
+            try {
+                exists = usersByUsername.containsKey(usernameKey(username));
+            } finally {
+                lock.readLock().unlock();
+            }
+            sample.success();
+            return exists;
+        }
+    }
+
+    private static final class FileState {
+        private final long lastModified;
+        private final long size;
+
+        private FileState(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FileState other && lastModified == other.lastModified && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(lastModified) * 31 + Long.hashCode(size);
+        }
     }
 }
@@ -0,0 +1,24 @@
+package org.example.service;
+
+/**
+ * How far an asynchronous append has to get before its future completes: handed to the OS
+ * (NONE), forced to disk once per batch (BATCH), or forced after every record (RECORD).
+ */
+public enum WriteDurability {
+    NONE,
+    BATCH,
+    RECORD;
+
+    /**
+     * Reads the {@code expense.write.durability} system property, defaulting to BATCH.
+     */
+    public static WriteDurability fromSystemProperty() {
+        String value = System.getProperty("expense.write.durability", "batch");
+        for (WriteDurability durability : values()) {
+            if (durability.name().equalsIgnoreCase(value)) {
+                return durability;
+            }
+        }
+        return BATCH;
+    }
+}
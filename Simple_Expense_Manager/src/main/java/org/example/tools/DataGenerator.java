@@ -0,0 +1,202 @@
+package org.example.tools;
+
+import org.example.exception.DuplicateUserException;
+import org.example.exception.ValidationException;
+import org.example.model.Expense;
+import org.example.model.SimpleExpense;
+import org.example.model.User;
+import org.example.service.ExpenseFileService;
+import org.example.service.UserStorageService;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Creates synthetic users and expenses through {@link UserStorageService} and
+ * {@link ExpenseFileService}, so the files on disk are exactly what the application writes.
+ * Accounts are named {@code <prefix><n>} and share {@link #PASSWORD}, which lets
+ * {@link LoadDriver} log in as them afterwards. Amounts follow a log-normal distribution
+ * around a median; dates are uniform over the range or skewed towards its end.
+ */
+public class DataGenerator {
+    public static final String PASSWORD = "Generated#1";
+    public static final String DEFAULT_PREFIX = "gen_user_";
+
+    private static final int USER_BATCH_SIZE = 10_000;
+    private static final int EXPENSE_BATCH_SIZE = 100_000;
+
+    public enum DateDistribution {
+        UNIFORM,
+        RECENT
+    }
+
+    private final UserStorageService userStorageService;
+    private final ExpenseFileService expenseFileService;
+    private final Random random;
+
+    private String prefix = DEFAULT_PREFIX;
+    private Map<String, Integer> categoryWeights = defaultCategoryWeights();
+    private double medianAmount = 40.0;
+    private double amountSpread = 1.0;
+    private LocalDate startDate = LocalDate.now().minusYears(2);
+    private LocalDate endDate = LocalDate.now();
+    private DateDistribution dateDistribution = DateDistribution.UNIFORM;
+
+    private String[] categories;
+    private int[] cumulativeWeights;
+
+    public DataGenerator(UserStorageService userStorageService, ExpenseFileService expenseFileService, long seed) {
+        this.userStorageService = userStorageService;
+        this.expenseFileService = expenseFileService;
+        this.random = new Random(seed);
+    }
+
+    // The four menu categories, weighted roughly like everyday spending
+    public static Map<String, Integer> defaultCategoryWeights() {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        weights.put("Food", 50);
+        weights.put("Travel", 20);
+        weights.put("Electricity", 10);
+        weights.put("Miscellaneous", 20);
+        return weights;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public void setCategoryWeights(Map<String, Integer> categoryWeights) {
+        if (categoryWeights.isEmpty() || categoryWeights.values().stream().anyMatch(weight -> weight < 0)
+                || categoryWeights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("Category weights must be non-negative and not all zero");
+        }
+        this.categoryWeights = new LinkedHashMap<>(categoryWeights);
+    }
+
+    public void setAmountDistribution(double medianAmount, double amountSpread) {
+        if (medianAmount <= 0 || amountSpread < 0) {
+            throw new IllegalArgumentException("Median amount must be positive and spread non-negative");
+        }
+        this.medianAmount = medianAmount;
+        this.amountSpread = amountSpread;
+    }
+
+    public void setDateRange(LocalDate startDate, LocalDate endDate, DateDistribution dateDistribution) {
+        if (endDate.isBefore(startDate)) {
+            throw new IllegalArgumentException("End date is before start date");
+        }
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.dateDistribution = dateDistribution;
+    }
+
+    public static String username(String prefix, int index) {
+        return prefix + index;
+    }
+
+    /**
+     * Registers {@code userCount} users and appends {@code expensesPerUser} expenses to each of
+     * their ledgers.
+     *
+     * @return the number of expenses written
+     */
+    public long generate(int userCount, int expensesPerUser)
+            throws IOException, DuplicateUserException, ValidationException {
+        prepareCategories();
+        long written = 0;
+        for (int first = 0; first < userCount; first += USER_BATCH_SIZE) {
+            List<User> batch = new ArrayList<>();
+            for (int i = first; i < Math.min(userCount, first + USER_BATCH_SIZE); i++) {
+                String username = username(prefix, i);
+                batch.add(new User("Generated User", username, PASSWORD, username, "TEMP_CSV_ID"));
+            }
+            for (User user : userStorageService.registerAll(batch)) {
+                written += generateExpenses(user, expensesPerUser);
+            }
+            System.out.println("Users generated: " + Math.min(userCount, first + USER_BATCH_SIZE) + "/" + userCount);
+        }
+        return written;
+    }
+
+    private long generateExpenses(User user, int count) throws IOException, ValidationException {
+        long written = 0;
+        List<Expense> batch = new ArrayList<>(Math.min(count, EXPENSE_BATCH_SIZE));
+        for (int i = 0; i < count; i++) {
+            batch.add(nextExpense(user.getUserId()));
+            if (batch.size() == EXPENSE_BATCH_SIZE) {
+                written += expenseFileService.appendExpenses(user.getCsvId(), user.getUserId(), batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            written += expenseFileService.appendExpenses(user.getCsvId(), user.getUserId(), batch);
+        }
+        return written;
+    }
+
+    public Expense nextExpense(String userId) throws ValidationException {
+        if (categories == null) {
+            prepareCategories();
+        }
+        return new SimpleExpense(userId, nextCategory(), nextAmount(), nextDate());
+    }
+
+    private void prepareCategories() {
+        categories = categoryWeights.keySet().toArray(new String[0]);
+        cumulativeWeights = new int[categories.length];
+        int total = 0;
+        for (int i = 0; i < categories.length; i++) {
+            total += categoryWeights.get(categories[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    private String nextCategory() {
+        int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= pick) {
+            i++;
+        }
+        return categories[i];
+    }
+
+    private double nextAmount() {
+        double amount = medianAmount * Math.exp(amountSpread * random.nextGaussian());
+        amount = Math.round(amount * 100) / 100.0;
+        return Math.min(1_000_000, Math.max(0.01, amount));
+    }
+
+    private LocalDate nextDate() {
+        long days = ChronoUnit.DAYS.between(startDate, endDate);
+        if (days == 0) {
+            return startDate;
+        }
+        if (dateDistribution == DateDistribution.UNIFORM) {
+            return startDate.plusDays(random.nextLong(days + 1));
+        }
+        // Exponential decay back from the end date; a third of the range holds ~63% of the rows
+        long back = (long) (-Math.log(1 - random.nextDouble()) * days / 3);
+        return endDate.minusDays(Math.min(back, days));
+    }
+
+    /**
+     * Parses {@code Food=50,Travel=20,...}.
+     */
+    public static Map<String, Integer> parseWeights(String spec) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] pair = part.split("=", 2);
+            if (pair.length != 2 || pair[0].isBlank()) {
+                throw new IllegalArgumentException("Expected name=weight but got '" + part + "'");
+            }
+            weights.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+}
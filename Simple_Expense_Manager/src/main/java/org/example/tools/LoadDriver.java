@@ -0,0 +1,245 @@
+package org.example.tools;
+
+import org.example.metrics.LatencyHistogram;
+import org.example.model.Expense;
+import org.example.model.SimpleExpense;
+import org.example.model.User;
+import org.example.repository.ExpenseRepository;
+import org.example.service.ExpenseFileService;
+import org.example.service.UserStorageService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Replays a weighted mix of operations against users created by {@link DataGenerator}, issuing
+ * them at a fixed target rate on virtual threads. Each operation's latency is measured from the
+ * moment the schedule says it should have started, not from when it actually got a thread, so
+ * a stalled system shows up in the percentiles instead of silently lowering the offered load.
+ * Users get one repository each, guarded by a lock, the way the HTTP server handles sessions.
+ */
+public class LoadDriver {
+    public enum Operation {
+        LOGIN,
+        ADD,
+        UPDATE,
+        RANGE,
+        SUMMARY,
+        EXPORT
+    }
+
+    private static final int MAX_IN_FLIGHT = 10_000;
+
+    private final UserStorageService userStorageService;
+    private final ExpenseFileService expenseFileService;
+    private final String prefix;
+    private final int userCount;
+    private final Random random;
+    private final DataGenerator expenses;
+
+    private Map<Operation, Integer> mix = defaultMix();
+    private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+    private static class Session {
+        final ReentrantLock lock = new ReentrantLock();
+        final User user;
+        final ExpenseRepository repository;
+
+        Session(User user, ExpenseRepository repository) {
+            this.user = user;
+            this.repository = repository;
+        }
+    }
+
+    public LoadDriver(UserStorageService userStorageService, ExpenseFileService expenseFileService,
+                      String prefix, int userCount, long seed) {
+        this.userStorageService = userStorageService;
+        this.expenseFileService = expenseFileService;
+        this.prefix = prefix;
+        this.userCount = userCount;
+        this.random = new Random(seed);
+        this.expenses = new DataGenerator(userStorageService, expenseFileService, seed);
+        for (Operation operation : Operation.values()) {
+            histograms.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    // Read-heavy, like a user browsing their expenses between occasional edits
+    public static Map<Operation, Integer> defaultMix() {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        mix.put(Operation.LOGIN, 10);
+        mix.put(Operation.ADD, 25);
+        mix.put(Operation.UPDATE, 10);
+        mix.put(Operation.RANGE, 30);
+        mix.put(Operation.SUMMARY, 20);
+        mix.put(Operation.EXPORT, 5);
+        return mix;
+    }
+
+    public void setMix(Map<Operation, Integer> mix) {
+        if (mix.values().stream().anyMatch(weight -> weight < 0)
+                || mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("Operation weights must be non-negative and not all zero");
+        }
+        this.mix = new EnumMap<>(mix);
+    }
+
+    /**
+     * Parses {@code login=10,add=25,...}; operations left out get weight 0.
+     */
+    public static Map<Operation, Integer> parseMix(String spec) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        DataGenerator.parseWeights(spec).forEach((name, weight) ->
+                mix.put(Operation.valueOf(name.toUpperCase()), weight));
+        return mix;
+    }
+
+    /**
+     * Offers {@code ratePerSecond} operations per second for {@code duration}, waits for the
+     * stragglers and returns how long the whole run took.
+     */
+    public Duration run(double ratePerSecond, Duration duration) throws InterruptedException {
+        Operation[] operations = mix.keySet().toArray(new Operation[0]);
+        int[] cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        long operationCount = (long) (ratePerSecond * duration.toNanos() / TimeUnit.SECONDS.toNanos(1));
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        long start = System.nanoTime();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0; i < operationCount; i++) {
+                long intendedStart = start + i * intervalNanos;
+                long wait = intendedStart - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                int pick = random.nextInt(total);
+                int op = 0;
+                while (cumulativeWeights[op] <= pick) {
+                    op++;
+                }
+                Operation operation = operations[op];
+                int userIndex = random.nextInt(userCount);
+
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        execute(operation, userIndex);
+                    } catch (Exception e) {
+                        errors.get(operation).increment();
+                    } finally {
+                        histograms.get(operation).record(System.nanoTime() - intendedStart);
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    private void execute(Operation operation, int userIndex) throws Exception {
+        String username = DataGenerator.username(prefix, userIndex);
+        if (operation == Operation.LOGIN) {
+            userStorageService.login(username, DataGenerator.PASSWORD);
+            return;
+        }
+
+        Session session = sessions.get(userIndex);
+        if (session == null) {
+            User user = userStorageService.login(username, DataGenerator.PASSWORD);
+            session = sessions.computeIfAbsent(userIndex, index -> new Session(user,
+                    new ExpenseRepository(expenseFileService, user.getCsvId(), user.getUserId())));
+        }
+
+        session.lock.lock();
+        try {
+            ExpenseRepository repository = session.repository;
+            switch (operation) {
+                case ADD:
+                    repository.addExpense(expenses.nextExpense(session.user.getUserId()));
+                    break;
+                case UPDATE:
+                    List<Expense> all = repository.getAllExpenses();
+                    if (!all.isEmpty()) {
+                        Expense expense = all.get(ThreadLocalRandom.current().nextInt(all.size()));
+                        repository.updateExpense(expense.getExpenseId(), new SimpleExpense(expense.getExpenseId(),
+                                expense.getUserId(), expense.getCategory(), expense.getAmount() + 1, expense.getDate()));
+                    }
+                    break;
+                case RANGE:
+                    LocalDate end = LocalDate.now().minusDays(ThreadLocalRandom.current().nextInt(365));
+                    repository.getExpensesByDateRange(end.minusDays(30), end);
+                    break;
+                case SUMMARY:
+                    repository.getSummary();
+                    break;
+                case EXPORT:
+                    export(repository);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected operation: " + operation);
+            }
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    // The menu's export, written to a scratch file that is removed afterwards
+    private void export(ExpenseRepository repository) throws IOException {
+        Path file = Files.createTempFile("expense-export", ".csv");
+        try {
+            repository.exportCsv(file, null, null, null, false);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public void printReport(Duration elapsed) {
+        System.out.println(String.format("%-8s %9s %7s %9s %9s %9s %9s %9s %9s",
+                "op", "count", "errors", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        long completed = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = histograms.get(operation);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            completed += histogram.getCount();
+            System.out.println(String.format("%-8s %9d %7d %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f",
+                    operation.name().toLowerCase(), histogram.getCount(), errors.get(operation).sum(),
+                    histogram.getMeanNanos() / 1e6,
+                    histogram.getValueAtPercentile(50) / 1e6,
+                    histogram.getValueAtPercentile(90) / 1e6,
+                    histogram.getValueAtPercentile(99) / 1e6,
+                    histogram.getValueAtPercentile(99.9) / 1e6,
+                    histogram.getMaxNanos() / 1e6));
+        }
+        System.out.println(String.format("Completed %d operations in %.1f s (%.1f ops/s)",
+                completed, elapsed.toNanos() / 1e9, completed / (elapsed.toNanos() / 1e9)));
+    }
+}
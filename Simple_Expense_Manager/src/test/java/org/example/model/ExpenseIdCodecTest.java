@@ -0,0 +1,108 @@
+package org.example.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpenseIdCodecTest {
+
+    @Test
+    void legacyIdsEncodeAsMillisAndSuffix() {
+        long code = ExpenseIdCodec.encode("EXP_1700000000000_42");
+
+        assertEquals(1700000000000L * 1000 + 42, code);
+        assertEquals(0, code & ExpenseIdCodec.GENERATED_TAG);
+        assertEquals("EXP_1700000000000_42", ExpenseIdCodec.decode(code));
+    }
+
+    @Test
+    void legacyIdsRoundTripAtTheEdgesOfTheSuffix() {
+        for (String id : new String[] {"EXP_0_0", "EXP_5_999", "EXP_1700000000000_0", "EXP_1700000000000_7"}) {
+            assertEquals(id, ExpenseIdCodec.decode(ExpenseIdCodec.encode(id)));
+        }
+    }
+
+    @Test
+    void generatedIdsCarryTheTagAndRoundTrip() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(17);
+        Set<Long> codes = new HashSet<>();
+        for (int i = 0; i < 5000; i++) {
+            String id = generator.nextId();
+            long code = ExpenseIdCodec.encode(id);
+
+            assertNotEquals(ExpenseIdCodec.IRREGULAR, code, id);
+            assertTrue((code & ExpenseIdCodec.GENERATED_TAG) != 0, id);
+            assertEquals(id, ExpenseIdCodec.decode(code));
+            assertTrue(codes.add(code), "duplicate " + id);
+        }
+    }
+
+    @Test
+    void generatedAndLegacyCodesNeverCollide() {
+        long largestLegacy = ExpenseIdCodec.encode("EXP_" + (ExpenseIdCodec.GENERATED_TAG - 1000) / 1000 + "_999");
+
+        assertNotEquals(ExpenseIdCodec.IRREGULAR, largestLegacy);
+        assertTrue(largestLegacy < ExpenseIdCodec.GENERATED_TAG);
+        assertEquals(ExpenseIdCodec.IRREGULAR, ExpenseIdCodec.encode("EXP_" + ExpenseIdCodec.GENERATED_TAG / 1000 + "_0"));
+    }
+
+    @Test
+    void idsThatWouldNotDecodeToTheSameTextAreIrregular() {
+        String[] irregular = {
+                "",
+                "EXP_",
+                "EXP_1_",
+                "EXP__1",
+                "exp_1700000000000_1",
+                "INV_1700000000000_1",
+                "EXP_01700000000000_1", // leading zero in the millis
+                "EXP_1700000000000_01", // leading zero in the suffix
+                "EXP_1700000000000_1000", // suffix past 999
+                "EXP_1700000000000_-1",
+                "EXP_1700000000000_1_2",
+                "EXP_17000000x0000_1",
+                "EXP_0000000000000", // 13 digits but without the generated tag
+                "EXP_4ZZZZZZZZZZZU", // U is not a Crockford digit
+                "EXP_4zzzzzzzzzzzz", // lower case
+                "EXP_4ZZZZZZZZZZZ", // 12 digits
+                "EXP_4ZZZZZZZZZZZZZ", // 14 digits
+                "EXP_ZZZZZZZZZZZZZ", // more than 64 bits
+                "hello",
+        };
+        for (String id : irregular) {
+            assertEquals(ExpenseIdCodec.IRREGULAR, ExpenseIdCodec.encode(id), id);
+        }
+    }
+
+    @Test
+    void encodesIdsInsideALargerBuffer() {
+        String id = new SnowflakeIdGenerator(3).nextId();
+        byte[] row = (id + ",user,Food,1.00,2024-01-02").getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buffer = ByteBuffer.wrap(row);
+
+        assertEquals(ExpenseIdCodec.encode(id), ExpenseIdCodec.encode(buffer, 0, id.length()));
+        assertEquals(ExpenseIdCodec.IRREGULAR, ExpenseIdCodec.encode(buffer, 0, id.length() + 1));
+        assertEquals(ExpenseIdCodec.IRREGULAR, ExpenseIdCodec.encode(buffer, id.length() + 1, id.length() + 5));
+    }
+
+    @Test
+    void ledgerKeepsIrregularIdsVerbatim() throws Exception {
+        ExpenseLedger ledger = new ExpenseLedger("user");
+        ledger.add(new SimpleExpense("EXP_0042_7", "user", "Food", 1.5, LocalDate.of(2024, 1, 2)));
+        ledger.add(new SimpleExpense("EXP_1700000000000_7", "user", "Food", 2.5, LocalDate.of(2024, 1, 3)));
+
+        assertEquals(ExpenseIdCodec.IRREGULAR, ledger.getIdCode(0));
+        assertEquals("EXP_0042_7", ledger.getExpenseId(0));
+        assertEquals("EXP_1700000000000_7", ledger.getExpenseId(1));
+        assertEquals(0, ledger.indexOf("EXP_0042_7"));
+        assertEquals(1, ledger.indexOf("EXP_1700000000000_7"));
+    }
+}
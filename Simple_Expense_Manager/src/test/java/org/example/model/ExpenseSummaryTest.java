@@ -0,0 +1,68 @@
+package org.example.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpenseSummaryTest {
+    private static final String USER_ID = "user-1";
+
+    private static Expense expense(int n, String category, double amount) throws Exception {
+        return new SimpleExpense("EXP_1700000000000_" + n, USER_ID, category, amount, LocalDate.of(2024, 1, n));
+    }
+
+    @Test
+    void summarizesEveryCategoryInOnePass() throws Exception {
+        ExpenseSummary summary = ExpenseSummary.of(List.of(
+                expense(1, "Food", 12.5),
+                expense(2, "Travel", 40),
+                expense(3, "Food", 7.25),
+                expense(4, "Rent", 950),
+                expense(5, "Food", 0.25)));
+
+        assertFalse(summary.isEmpty());
+        assertEquals(5, summary.getCount());
+        assertEquals(101000, summary.getTotalCents());
+        assertEquals(25, summary.getMinCents());
+        assertEquals(95000, summary.getMaxCents());
+        assertEquals(List.of("Food", "Rent", "Travel"), summary.getCategoryNames());
+
+        ExpenseSummary.CategorySummary food = summary.getCategory("food");
+        assertEquals("Food", food.getCategory());
+        assertEquals(3, food.getCount());
+        assertEquals(2000, food.getTotalCents());
+        assertEquals(25, food.getMinCents());
+        assertEquals(1250, food.getMaxCents());
+        assertEquals(2000 * 100.0 / 101000, summary.getPercentage(food), 1e-9);
+    }
+
+    @Test
+    void keepsTotalsExactOverManyRows() throws Exception {
+        Expense[] expenses = new Expense[100_000];
+        for (int i = 0; i < expenses.length; i++) {
+            expenses[i] = new SimpleExpense("EXP_1700000000000_" + (i % 1000), USER_ID, "Food", 0.1, LocalDate.of(2024, 1, 1));
+        }
+
+        ExpenseSummary summary = ExpenseSummary.of(List.of(expenses));
+
+        assertEquals(1_000_000, summary.getTotalCents());
+        assertEquals(10_000.0, summary.getTotal());
+    }
+
+    @Test
+    void summarizesNothing() {
+        ExpenseSummary summary = ExpenseSummary.of(List.of());
+
+        assertTrue(summary.isEmpty());
+        assertEquals(0, summary.getTotalCents());
+        assertTrue(summary.getCategories().isEmpty());
+        ExpenseSummary.CategorySummary missing = summary.getCategory("Food");
+        assertEquals(0, missing.getCount());
+        assertEquals(0, summary.getPercentage(missing));
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.model;
+
+import org.example.exception.ValidationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MoneyTest {
+
+    @Test
+    void roundsHalfUpOnTheShortestDecimalForm() throws Exception {
+        assertEquals(29, Money.toCents(0.285));
+        assertEquals(101, Money.toCents(1.005));
+        assertEquals(268, Money.toCents(2.675));
+        assertEquals(Money.MAX_CENTS, Money.toCents(1_000_000));
+    }
+
+    @Test
+    void roundsNegativeAmountsAwayFromZero() throws Exception {
+        assertEquals(-29, Money.toCents(-0.285));
+        assertEquals(-101, Money.toCents(-1.005));
+        assertEquals(-1, Money.toCents(-0.005));
+        assertEquals(-1250, Money.toCents(-12.5));
+    }
+
+    @Test
+    void amountsBelowHalfACentRoundToZero() throws Exception {
+        assertEquals(0, Money.toCents(0.004));
+        assertEquals(0, Money.toCents(0.0049));
+        assertEquals(1, Money.toCents(0.005));
+        assertEquals(0, Money.toCents(-0.004));
+        assertEquals(0, Money.toCents(1e-12));
+        // Cents have no negative zero, so this prints without the sign "%.2f" would give it
+        assertEquals("0.00", Money.format(Money.toCents(-0.004)));
+        assertEquals("0.00", Money.format(0));
+    }
+
+    @Test
+    void rejectsAmountsTooLargeOrNotFinite() {
+        for (double amount : new double[] {1e17, -1e17, 1_000_000.01, Double.MAX_VALUE,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN}) {
+            assertThrows(ValidationException.class, () -> Money.toCents(amount), String.valueOf(amount));
+        }
+        assertThrows(ValidationException.class,
+                () -> new SimpleExpense("user-1", "Food", 1e17, LocalDate.of(2024, 1, 1)));
+    }
+
+    @Test
+    void formatsNegativeCents() {
+        assertEquals("-0.01", Money.format(-1));
+        assertEquals("-0.29", Money.format(-29));
+        assertEquals("-123.45", Money.format(-12345));
+        assertEquals("-1000000.00", Money.format(-Money.MAX_CENTS));
+    }
+
+    @Test
+    void formatsLikePercentTwoF() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            double amount = Math.round(random.nextDouble() * 2_000_000_000) / 1000.0 - 1_000_000;
+            if (Money.toCents(amount) == 0) {
+                continue; // see amountsBelowHalfACentRoundToZero
+            }
+            assertEquals(String.format(Locale.ROOT, "%.2f", amount), Money.format(Money.toCents(amount)), String.valueOf(amount));
+        }
+    }
+
+    @Test
+    void writesTheSameTextAsItFormats() {
+        byte[] target = new byte[23];
+        for (long cents : new long[] {0, 1, -1, 9, 10, 99, 100, -100, 12345, -12345, Money.MAX_CENTS, Long.MAX_VALUE}) {
+            int end = Money.writeCents(target, 0, cents);
+            assertEquals(Money.format(cents), new String(target, 0, end, StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.example.service;
+
+import org.example.model.Expense;
+import org.example.model.ExpenseLedger;
+import org.example.model.SimpleExpense;
+import org.example.model.SnowflakeIdGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpenseBinaryStoreTest {
+    private static final String USER_ID = "user-1";
+
+    @TempDir
+    Path dir;
+
+    private final SnowflakeIdGenerator generator = new SnowflakeIdGenerator(9);
+
+    private Expense expense(String id, String category, double amount, LocalDate date) throws Exception {
+        return new SimpleExpense(id == null ? generator.nextId() : id, USER_ID, category, amount, date);
+    }
+
+    private List<Expense> sampleExpenses() throws Exception {
+        return List.of(
+                expense("EXP_1700000000000_42", "Food", 12.5, LocalDate.of(2023, 11, 14)),
+                expense(null, "Travel", 0.01, LocalDate.of(2024, 2, 29)),
+                expense("EXP_0042_7", "Food", 1_000_000, LocalDate.of(1999, 12, 31)),
+                expense(null, "Café", 0.285, LocalDate.of(2024, 1, 1)),
+                expense("legacy-import-1", "Rent", 950, LocalDate.of(2024, 3, 1)));
+    }
+
+    private static List<String> rows(ExpenseLedger ledger) {
+        List<String> rows = new ArrayList<>();
+        for (Expense expense : ledger.asList()) {
+            rows.add(expense.toCSV());
+        }
+        return rows;
+    }
+
+    private static List<String> rows(List<Expense> expenses) {
+        List<String> rows = new ArrayList<>();
+        for (Expense expense : expenses) {
+            rows.add(expense.toCSV());
+        }
+        return rows;
+    }
+
+    @Test
+    void roundTripsALedger() throws Exception {
+        List<Expense> expenses = sampleExpenses();
+        ExpenseLedger ledger = new ExpenseLedger(USER_ID);
+        expenses.forEach(ledger::add);
+        Path path = dir.resolve("ledger.bin");
+
+        ExpenseBinaryStore.write(path, ledger);
+
+        assertEquals(rows(expenses), rows(ExpenseBinaryStore.read(path, USER_ID)));
+        assertEquals(expenses.size(), ExpenseBinaryStore.recordCount(path));
+        assertEquals("legacy-import-1", ExpenseBinaryStore.readId(path, 4));
+        assertEquals(expenses.get(2).toCSV(), ExpenseBinaryStore.readRecord(path, 2, USER_ID).toCSV());
+    }
+
+    @Test
+    void roundTripsAnEmptyLedger() throws Exception {
+        Path path = dir.resolve("ledger.bin");
+
+        ExpenseBinaryStore.write(path, new ExpenseLedger(USER_ID));
+
+        assertEquals(0, ExpenseBinaryStore.read(path, USER_ID).size());
+        assertEquals(0, ExpenseBinaryStore.recordCount(path));
+    }
+
+    @Test
+    void appendsCreateTheFileAndAddCategories() throws Exception {
+        List<Expense> expenses = sampleExpenses();
+        Path path = dir.resolve("ledger.bin");
+
+        assertEquals(2, ExpenseBinaryStore.appendAll(path, expenses.subList(0, 2), USER_ID, false));
+        ExpenseBinaryStore.append(path, expenses.get(2));
+        assertEquals(2, ExpenseBinaryStore.appendAll(path, expenses.subList(3, 5), USER_ID, true));
+        assertEquals(0, ExpenseBinaryStore.appendAll(path, List.of(), USER_ID, false));
+
+        assertEquals(rows(expenses), rows(ExpenseBinaryStore.read(path, USER_ID)));
+    }
+
+    @Test
+    void appendsFromAnIterableThatCanOnlyBeWalkedOnce() throws Exception {
+        List<Expense> expenses = sampleExpenses();
+        Path path = dir.resolve("ledger.bin");
+        ExpenseBinaryStore.appendAll(path, expenses.subList(0, 1), USER_ID, false);
+
+        Iterator<Expense> rest = expenses.subList(1, 5).iterator();
+        Iterable<Expense> once = () -> rest;
+
+        assertEquals(4, ExpenseBinaryStore.appendAll(path, once, USER_ID, false));
+        assertEquals(rows(expenses), rows(ExpenseBinaryStore.read(path, USER_ID)));
+        assertEquals(5, ExpenseBinaryStore.recordCount(path));
+    }
+
+    @Test
+    void keepsTheFileCompactOverManyAppends() throws Exception {
+        Path path = dir.resolve("ledger.bin");
+        List<Expense> expenses = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Expense expense = expense(i % 7 == 0 ? "odd-id-" + i : null, "Category" + (i % 40), 1 + i,
+                    LocalDate.of(2024, 1, 1).plusDays(i));
+            expenses.add(expense);
+            ExpenseBinaryStore.append(path, expense);
+        }
+
+        assertEquals(rows(expenses), rows(ExpenseBinaryStore.read(path, USER_ID)));
+        // Records, plus room for about one trailer's worth of categories and irregular ids
+        long records = ExpenseBinaryStore.HEADER_SIZE + (long) expenses.size() * ExpenseBinaryStore.RECORD_SIZE;
+        assertTrue(Files.size(path) < records + 4 * 1024, "file size " + Files.size(path));
+    }
+
+    @Test
+    void updatesAndDeletesRecords() throws Exception {
+        List<Expense> expenses = new ArrayList<>(sampleExpenses());
+        Path path = dir.resolve("ledger.bin");
+        ExpenseBinaryStore.appendAll(path, expenses, USER_ID, false);
+
+        Expense moved = expense(expenses.get(1).getExpenseId(), "Groceries", 3.75, LocalDate.of(2024, 4, 2));
+        assertTrue(ExpenseBinaryStore.update(path, moved, -1));
+        expenses.set(1, moved);
+        assertTrue(ExpenseBinaryStore.delete(path, "legacy-import-1", 0)); // wrong hint falls back to a scan
+        expenses.remove(4);
+        assertFalse(ExpenseBinaryStore.delete(path, "legacy-import-1", -1));
+        assertFalse(ExpenseBinaryStore.delete(path, "EXP_1_1", -1));
+
+        assertEquals(rows(expenses), rows(ExpenseBinaryStore.read(path, USER_ID)));
+        assertNull(ExpenseBinaryStore.readRecord(path, 4, USER_ID));
+        assertEquals(5, ExpenseBinaryStore.recordCount(path));
+    }
+
+    @Test
+    void scanSkipsDeletedRecordsAndMatchesTheCsvWriter() throws Exception {
+        List<Expense> expenses = new ArrayList<>(sampleExpenses());
+        Path path = dir.resolve("ledger.bin");
+        ExpenseBinaryStore.appendAll(path, expenses, USER_ID, false);
+        ExpenseBinaryStore.delete(path, expenses.remove(0).getExpenseId(), 0);
+
+        ExpenseLedger dictionary = new ExpenseLedger(USER_ID);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExpenseCsvWriter writer = new ExpenseCsvWriter(out, dictionary, USER_ID, "\n");
+        ExpenseBinaryStore.scan(path, dictionary, writer::writeRow);
+        writer.flush();
+
+        assertEquals(String.join("\n", rows(expenses)) + "\n", out.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,154 @@
+package org.example.service;
+
+import org.example.model.Expense;
+import org.example.model.ExpenseLedger;
+import org.example.model.SimpleExpense;
+import org.example.model.SnowflakeIdGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExpenseCsvRoundTripTest {
+    private static final String USER_ID = "user-1";
+    private static final String HEADER = "ExpenseID,UserID,Category,Amount,DateTime";
+
+    @TempDir
+    Path dir;
+
+    private static ExpenseLedger sampleLedger() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(5);
+        ExpenseLedger ledger = new ExpenseLedger(USER_ID);
+        ledger.add(new SimpleExpense("EXP_1700000000000_42", USER_ID, "Food", 12.5, LocalDate.of(2023, 11, 14)));
+        ledger.add(new SimpleExpense(generator.nextId(), USER_ID, "Travel", 0.01, LocalDate.of(2024, 2, 29)));
+        ledger.add(new SimpleExpense("EXP_0042_7", USER_ID, "Food", 1_000_000, LocalDate.of(1999, 12, 31)));
+        ledger.add(new SimpleExpense(generator.nextId(), USER_ID, "Café", 0.285, LocalDate.of(2024, 1, 1)));
+        ledger.add(new SimpleExpense("legacy-import-1", USER_ID, "Rent", 950, LocalDate.of(2024, 3, 1)));
+        return ledger;
+    }
+
+    private static String write(ExpenseLedger ledger, String lineSeparator) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExpenseCsvWriter writer = new ExpenseCsvWriter(out, ledger, ledger.getUserId(), lineSeparator);
+        writer.writeLine(HEADER);
+        for (int row = 0; row < ledger.size(); row++) {
+            writer.writeRow(ledger.getIdCode(row), ledger.getExpenseId(row), ledger.getCategoryId(row),
+                    ledger.getAmountCents(row), ledger.getEpochDay(row));
+        }
+        writer.flush();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private ExpenseLedger parse(String text) throws IOException {
+        Path file = Files.writeString(dir.resolve("ledger.csv"), text);
+        ExpenseLedger ledger = new ExpenseLedger(USER_ID);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            new ExpenseCsvParser(ledger).parse(channel, true);
+        }
+        return ledger;
+    }
+
+    private static List<String> rows(ExpenseLedger ledger) {
+        List<String> rows = new ArrayList<>();
+        for (Expense expense : ledger.asList()) {
+            rows.add(expense.toCSV());
+        }
+        return rows;
+    }
+
+    @Test
+    void writerMatchesToCsv() throws Exception {
+        ExpenseLedger ledger = sampleLedger();
+        StringBuilder expected = new StringBuilder(HEADER).append('\n');
+        for (String row : rows(ledger)) {
+            expected.append(row).append('\n');
+        }
+
+        assertEquals(expected.toString(), write(ledger, "\n"));
+    }
+
+    @Test
+    void roundTripsWithUnixLineEndings() throws Exception {
+        ExpenseLedger ledger = sampleLedger();
+
+        assertEquals(rows(ledger), rows(parse(write(ledger, "\n"))));
+    }
+
+    @Test
+    void roundTripsWithWindowsLineEndings() throws Exception {
+        ExpenseLedger ledger = sampleLedger();
+
+        assertEquals(rows(ledger), rows(parse(write(ledger, "\r\n"))));
+    }
+
+    @Test
+    void readsALastRowWithoutALineBreak() throws Exception {
+        ExpenseLedger ledger = sampleLedger();
+        String text = write(ledger, "\n");
+
+        assertEquals(rows(ledger), rows(parse(text.substring(0, text.length() - 1))));
+    }
+
+    @Test
+    void readsTheOlderHeaderWithDescriptionsAndTimes() throws Exception {
+        String text = "ExpenseID,UserID,Category,Amount,DateTime,Description\n"
+                + "EXP_1700000000000_1," + USER_ID + ",Food,12.50,2023-11-14 09:30:00,lunch\n"
+                + "EXP_1700000000000_2," + USER_ID + ",Travel,3,2023-11-15T18:00:00,\n"
+                + "EXP_1700000000000_3," + USER_ID + ",Food,1.5e2,2023-11-16,\n";
+
+        assertEquals(List.of(
+                "EXP_1700000000000_1," + USER_ID + ",Food,12.50,2023-11-14",
+                "EXP_1700000000000_2," + USER_ID + ",Travel,3.00,2023-11-15",
+                "EXP_1700000000000_3," + USER_ID + ",Food,150.00,2023-11-16"), rows(parse(text)));
+    }
+
+    @Test
+    void skipsRowsThatDoNotParse() throws Exception {
+        String text = HEADER + "\n"
+                + "EXP_1700000000000_1," + USER_ID + ",Food,12.50,2023-11-14\n"
+                + "\n"
+                + "EXP_1700000000000_2," + USER_ID + ",Food,-4.00,2023-11-14\n"
+                + "EXP_1700000000000_3," + USER_ID + ",Food,4.00,2023-02-30\n"
+                + "EXP_1700000000000_4," + USER_ID + ",Food\n"
+                + "EXP_1700000000000_5," + USER_ID + ",Food,4.00,2023-11-15\n";
+
+        assertEquals(List.of(
+                "EXP_1700000000000_1," + USER_ID + ",Food,12.50,2023-11-14",
+                "EXP_1700000000000_5," + USER_ID + ",Food,4.00,2023-11-15"), rows(parse(text)));
+    }
+
+    @Test
+    void parsesRowsLongerThanTheReadBuffer() throws Exception {
+        String category = "C".repeat(200_000);
+        String text = HEADER + "\nEXP_1700000000000_1," + USER_ID + "," + category + ",1.00,2024-01-01\n";
+
+        ExpenseLedger ledger = parse(text);
+
+        assertEquals(1, ledger.size());
+        assertEquals(category, ledger.getCategory(0));
+    }
+
+    @Test
+    void readsThroughAnyChannel() throws Exception {
+        ExpenseLedger ledger = sampleLedger();
+        byte[] bytes = write(ledger, "\n").getBytes(StandardCharsets.UTF_8);
+        ExpenseLedger parsed = new ExpenseLedger(USER_ID);
+
+        new ExpenseCsvParser(parsed).parse(Channels.newChannel(new ByteArrayInputStream(bytes)), true);
+
+        assertEquals(rows(ledger), rows(parsed));
+    }
+}
@@ -0,0 +1,159 @@
+package org.example.service;
+
+import org.example.model.Expense;
+import org.example.model.ExpenseRollup;
+import org.example.model.SimpleExpense;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpenseRollupFileTest {
+    private static final String USER_ID = "user-1";
+    private static final String[] CATEGORIES = {"Food", "Travel", "Rent", "Café"};
+
+    @TempDir
+    Path dir;
+
+    private static Expense expense(int n, String category, long cents, LocalDate date) throws Exception {
+        return new SimpleExpense("EXP_1700000000000_" + n, USER_ID, category, cents / 100.0, date);
+    }
+
+    // Count and total of every bucket; min and max are left out because removals keep the old ones
+    private static List<String> totals(ExpenseRollup rollup) {
+        List<String> buckets = new ArrayList<>();
+        rollup.forEach((month, category, count, totalCents, minCents, maxCents) ->
+                buckets.add(month + " " + category + " " + count + " " + totalCents));
+        buckets.sort(null);
+        return buckets;
+    }
+
+    private static List<String> buckets(ExpenseRollup rollup) {
+        List<String> buckets = new ArrayList<>();
+        rollup.forEach((month, category, count, totalCents, minCents, maxCents) ->
+                buckets.add(month + " " + category + " " + count + " " + totalCents + " " + minCents + " " + maxCents));
+        buckets.sort(null);
+        return buckets;
+    }
+
+    @Test
+    void readsBackASnapshot() throws Exception {
+        ExpenseRollup rollup = ExpenseRollup.of(List.of(
+                expense(1, "Food", 1250, LocalDate.of(2024, 1, 5)),
+                expense(2, "Food", 300, LocalDate.of(2024, 1, 31)),
+                expense(3, "Café", 99, LocalDate.of(2024, 2, 1))));
+        Path path = dir.resolve("ledger.rollup");
+
+        ExpenseRollupFile.write(path, rollup, 100, 200);
+
+        assertTrue(ExpenseRollupFile.describes(path, 100, 200));
+        assertEquals(buckets(rollup), buckets(ExpenseRollupFile.read(path, 100, 200)));
+    }
+
+    @Test
+    void replaysAppendedChanges() throws Exception {
+        Random random = new Random(7);
+        List<Expense> ledger = new ArrayList<>();
+        for (int n = 0; n < 50; n++) {
+            ledger.add(expense(n, CATEGORIES[random.nextInt(CATEGORIES.length)], 1 + random.nextInt(50_000),
+                    LocalDate.of(2024, 1, 1).plusDays(random.nextInt(200))));
+        }
+        Path path = dir.resolve("ledger.rollup");
+        long length = 1000;
+        ExpenseRollupFile.write(path, ExpenseRollup.of(ledger), length, length);
+
+        for (int n = 50; n < 400; n++) {
+            ExpenseRollup removed = null;
+            ExpenseRollup added = null;
+            int change = random.nextInt(3);
+            if (change != 0) {
+                Expense expense = expense(n, CATEGORIES[random.nextInt(CATEGORIES.length)], 1 + random.nextInt(50_000),
+                        LocalDate.of(2024, 1, 1).plusDays(random.nextInt(200)));
+                ledger.add(expense);
+                added = ExpenseRollup.of(List.of(expense));
+            }
+            if (change != 1 && !ledger.isEmpty()) {
+                Expense expense = ledger.remove(random.nextInt(ledger.size()));
+                removed = ExpenseRollup.of(List.of(expense));
+            }
+            assertTrue(ExpenseRollupFile.describes(path, length, length));
+            length++;
+            ExpenseRollupFile.append(path, removed, added, length, length);
+        }
+
+        assertEquals(totals(ExpenseRollup.of(ledger)), totals(ExpenseRollupFile.read(path, length, length)));
+    }
+
+    @Test
+    void replaysAddsWithTheirMinimumAndMaximum() throws Exception {
+        Path path = dir.resolve("ledger.rollup");
+        List<Expense> ledger = new ArrayList<>(List.of(expense(1, "Food", 500, LocalDate.of(2024, 3, 3))));
+        ExpenseRollupFile.write(path, ExpenseRollup.of(ledger), 1, 1);
+
+        Expense cheaper = expense(2, "Food", 100, LocalDate.of(2024, 3, 4));
+        Expense dearer = expense(3, "Food", 900, LocalDate.of(2024, 3, 5));
+        ExpenseRollupFile.append(path, null, ExpenseRollup.of(List.of(cheaper)), 2, 2);
+        ExpenseRollupFile.append(path, null, ExpenseRollup.of(List.of(dearer)), 3, 3);
+        ledger.add(cheaper);
+        ledger.add(dearer);
+
+        assertEquals(buckets(ExpenseRollup.of(ledger)), buckets(ExpenseRollupFile.read(path, 3, 3)));
+    }
+
+    @Test
+    void foldsLongChangeLogsIntoANewSnapshot() throws Exception {
+        Path path = dir.resolve("ledger.rollup");
+        List<Expense> ledger = new ArrayList<>();
+        ExpenseRollupFile.write(path, ExpenseRollup.of(ledger), 0, 0);
+
+        for (int n = 1; n <= 3000; n++) {
+            Expense expense = expense(n, CATEGORIES[n % CATEGORIES.length], n, LocalDate.of(2024, 1, 1).plusDays(n % 60));
+            ledger.add(expense);
+            ExpenseRollupFile.append(path, null, ExpenseRollup.of(List.of(expense)), n, n);
+        }
+
+        // 3000 single-bucket entries would take well over 100 KB without compaction
+        assertTrue(Files.size(path) < 100 * 1024, "file size " + Files.size(path));
+        assertEquals(buckets(ExpenseRollup.of(ledger)), buckets(ExpenseRollupFile.read(path, 3000, 3000)));
+    }
+
+    @Test
+    void ignoresARollupThatNoLongerDescribesTheLedger() throws Exception {
+        Path path = dir.resolve("ledger.rollup");
+        ExpenseRollup rollup = ExpenseRollup.of(List.of(expense(1, "Food", 500, LocalDate.of(2024, 3, 3))));
+        ExpenseRollupFile.write(path, rollup, 10, 20);
+        ExpenseRollupFile.append(path, null, rollup, 11, 21);
+
+        assertFalse(ExpenseRollupFile.describes(path, 10, 20));
+        assertNull(ExpenseRollupFile.read(path, 10, 20));
+        assertNull(ExpenseRollupFile.read(path, 11, 22));
+        assertNull(ExpenseRollupFile.read(dir.resolve("missing.rollup"), 11, 21));
+        assertFalse(ExpenseRollupFile.describes(dir.resolve("missing.rollup"), 11, 21));
+    }
+
+    @Test
+    void ignoresAnAppendCutShort() throws Exception {
+        Path path = dir.resolve("ledger.rollup");
+        ExpenseRollup rollup = ExpenseRollup.of(List.of(expense(1, "Food", 500, LocalDate.of(2024, 3, 3))));
+        ExpenseRollupFile.write(path, rollup, 10, 20);
+        ExpenseRollupFile.append(path, null, rollup, 11, 21);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        assertNull(ExpenseRollupFile.read(path, 11, 21));
+    }
+}
@@ -0,0 +1,122 @@
+package org.example.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import org.example.exception.ValidationException;
+import org.example.model.Expense;
+import org.example.model.SimpleExpense;
+import org.example.model.User;
+import org.example.service.ExpenseFileService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixtures shared by the benchmarks. The services resolve {@code expenses/} and
+ * {@code users.json} against the working directory, so fixtures are only written into a
+ * directory that is empty or was set up by an earlier benchmark run.
+ */
+final class BenchmarkData {
+    static final String USER_ID = "bench_user";
+    static final String PASSWORD = "Bench#Pass1";
+    static final String[] CATEGORIES = {"Food", "Travel", "Rent", "Utilities", "Entertainment",
+            "Health", "Shopping", "Education", "Gifts", "Miscellaneous"};
+    static final LocalDate FIRST_DATE = LocalDate.of(2020, 1, 1);
+    static final int DAYS = 5 * 365;
+
+    private static final Path MARKER = Path.of(".expense-benchmarks");
+    private static final int BATCH_SIZE = 100_000;
+
+    private BenchmarkData() {
+    }
+
+    static void requireScratchDirectory() throws IOException {
+        if (Files.exists(MARKER)) {
+            return;
+        }
+        if (Files.exists(Path.of("users.json")) || Files.exists(Path.of("expenses"))) {
+            throw new IllegalStateException("Run the benchmarks from an empty scratch directory; "
+                    + Path.of("").toAbsolutePath() + " already holds expense data");
+        }
+        Files.createFile(MARKER);
+    }
+
+    static String csvId(String prefix, Object format, int rows) {
+        return "BENCH_" + prefix + "_" + format + "_" + rows;
+    }
+
+    /**
+     * Writes a ledger of {@code rows} random expenses unless one of that name already exists.
+     */
+    static void ensureLedger(ExpenseFileService service, String csvId, int rows) throws IOException {
+        if (service.getFileSize(csvId) > 0) {
+            return;
+        }
+        Random random = new Random(rows);
+        List<Expense> batch = new ArrayList<>(Math.min(rows, BATCH_SIZE));
+        for (int i = 0; i < rows; i++) {
+            batch.add(randomExpense(random));
+            if (batch.size() == BATCH_SIZE) {
+                service.appendExpenses(csvId, USER_ID, batch);
+                batch.clear();
+            }
+        }
+        service.appendExpenses(csvId, USER_ID, batch);
+    }
+
+    static Expense randomExpense(Random random) {
+        try {
+            return new SimpleExpense(USER_ID, CATEGORIES[random.nextInt(CATEGORIES.length)],
+                    1 + random.nextInt(99_999) / 100.0, FIRST_DATE.plusDays(random.nextInt(DAYS)));
+        } catch (ValidationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String username(int index) {
+        return "bench_" + index;
+    }
+
+    /**
+     * Replaces the user snapshot with {@code count} users and removes any registration logs.
+     */
+    static void writeUsers(int count) throws IOException {
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(Path.of("."), "users{,-*}.jsonl")) {
+            for (Path log : logs) {
+                Files.delete(log);
+            }
+        }
+
+        Gson gson = new Gson();
+        try (Writer writer = Files.newBufferedWriter(Path.of("users.json"));
+             JsonWriter jsonWriter = new JsonWriter(writer)) {
+            jsonWriter.setIndent("  ");
+            jsonWriter.beginArray();
+            for (int i = 0; i < count; i++) {
+                User user = new User("Bench User", username(i), PASSWORD, "user_" + i, "CSV_BENCH_" + i);
+                gson.toJson(user, User.class, jsonWriter);
+            }
+            jsonWriter.endArray();
+        } catch (ValidationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void deleteLedger(String csvId) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Path.of("expenses"), csvId + ".*")) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.example.benchmarks;
+
+import org.example.model.Expense;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-row formatting cost of {@link Expense}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpenseBenchmark {
+    private Expense[] expenses;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        expenses = new Expense[1024];
+        for (int i = 0; i < expenses.length; i++) {
+            expenses[i] = BenchmarkData.randomExpense(random);
+        }
+    }
+
+    private Expense nextExpense() {
+        next = (next + 1) & (expenses.length - 1);
+        return expenses[next];
+    }
+
+    @Benchmark
+    public String toCSV() {
+        return nextExpense().toCSV();
+    }
+
+    @Benchmark
+    public String toFormattedString() {
+        return nextExpense().toFormattedString();
+    }
+}
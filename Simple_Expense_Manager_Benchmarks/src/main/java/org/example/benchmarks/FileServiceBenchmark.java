@@ -0,0 +1,113 @@
+package org.example.benchmarks;
+
+import org.example.model.Expense;
+import org.example.model.ExpenseLedger;
+import org.example.model.SimpleExpense;
+import org.example.service.ExpenseFileService;
+import org.example.service.StorageFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistence paths of {@link ExpenseFileService}: full loads and rewrites, and single-row
+ * lookups and updates through the id index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FileServiceBenchmark {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    @Param({"CSV", "BINARY"})
+    public StorageFormat format;
+
+    private ExpenseFileService service;
+    private String csvId;
+    private String saveCsvId;
+    private List<Expense> expenses;
+    private ExpenseLedger ledger;
+    private Random random;
+    private boolean toggle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.requireScratchDirectory();
+        service = new ExpenseFileService(format);
+        csvId = BenchmarkData.csvId("FILE", format, rows);
+        saveCsvId = BenchmarkData.csvId("SAVE", format, rows);
+        BenchmarkData.ensureLedger(service, csvId, rows);
+        ledger = service.loadLedger(csvId, BenchmarkData.USER_ID);
+        expenses = ledger.toExpenses();
+        random = new Random(42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.closeWriters();
+        BenchmarkData.deleteLedger(saveCsvId);
+    }
+
+    @Benchmark
+    public List<Expense> loadAllExpenses() throws IOException {
+        return service.loadAllExpenses(csvId, BenchmarkData.USER_ID);
+    }
+
+    @Benchmark
+    public ExpenseLedger loadLedger() throws IOException {
+        return service.loadLedger(csvId, BenchmarkData.USER_ID);
+    }
+
+    @Benchmark
+    public void saveAllExpenses() throws IOException {
+        service.saveAllExpenses(saveCsvId, expenses);
+    }
+
+    @Benchmark
+    public void saveLedger() throws IOException {
+        service.saveLedger(saveCsvId, ledger);
+    }
+
+    @Benchmark
+    public Expense findExpenseById() throws IOException {
+        return service.findExpenseById(csvId, BenchmarkData.USER_ID, randomExpense().getExpenseId());
+    }
+
+    @Benchmark
+    public Expense findUnknownExpenseId() throws IOException {
+        return service.findExpenseById(csvId, BenchmarkData.USER_ID, "EXP_1700000000000_" + random.nextInt(1000));
+    }
+
+    // Only the cents change, so the CSV row keeps its width and is rewritten in place
+    @Benchmark
+    public void updateExpense() throws Exception {
+        Expense expense = randomExpense();
+        toggle = !toggle;
+        double amount = Math.floor(expense.getAmount()) + (toggle ? 0.25 : 0.75);
+        service.updateExpense(csvId, expense.getExpenseId(), new SimpleExpense(expense.getExpenseId(),
+                expense.getUserId(), expense.getCategory(), amount, expense.getDate()));
+    }
+
+    private Expense randomExpense() {
+        return expenses.get(random.nextInt(expenses.size()));
+    }
+}
@@ -0,0 +1,158 @@
+package org.example.benchmarks;
+
+import org.example.exception.ExpenseNotFoundException;
+import org.example.model.Expense;
+import org.example.model.ExpenseQuery;
+import org.example.model.ExpenseSummary;
+import org.example.repository.ExpenseRepository;
+import org.example.service.ExpenseFileService;
+import org.example.service.StorageFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every {@link ExpenseRepository} query against a warm cache, plus a cold load that includes
+ * reading the ledger file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RepositoryBenchmark {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    private ExpenseFileService service;
+    private String csvId;
+    private ExpenseRepository repository;
+    private List<Expense> expenses;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.requireScratchDirectory();
+        service = new ExpenseFileService(StorageFormat.CSV);
+        csvId = BenchmarkData.csvId("REPO", StorageFormat.CSV, rows);
+        BenchmarkData.ensureLedger(service, csvId, rows);
+        repository = new ExpenseRepository(service, csvId, BenchmarkData.USER_ID);
+        expenses = repository.getAllExpenses();
+        random = new Random(42);
+    }
+
+    private LocalDate randomDate() {
+        return BenchmarkData.FIRST_DATE.plusDays(random.nextInt(BenchmarkData.DAYS));
+    }
+
+    private String randomCategory() {
+        return BenchmarkData.CATEGORIES[random.nextInt(BenchmarkData.CATEGORIES.length)];
+    }
+
+    @Benchmark
+    public double coldLoadTotal() {
+        return new ExpenseRepository(service, csvId, BenchmarkData.USER_ID).getTotalExpenses();
+    }
+
+    @Benchmark
+    public int coldLoadAll() {
+        return new ExpenseRepository(service, csvId, BenchmarkData.USER_ID).getAllExpenses().size();
+    }
+
+    @Benchmark
+    public List<Expense> coldFindTopInCategoryMonth() {
+        LocalDate start = randomDate();
+        ExpenseQuery query = ExpenseQuery.builder()
+                .category(randomCategory())
+                .between(start, start.plusMonths(1))
+                .sortBy(ExpenseQuery.Sort.AMOUNT_DESCENDING)
+                .limit(10)
+                .build();
+        return new ExpenseRepository(service, csvId, BenchmarkData.USER_ID).find(query);
+    }
+
+    @Benchmark
+    public List<Expense> findTopInCategoryMonth() {
+        LocalDate start = randomDate();
+        return repository.find(ExpenseQuery.builder()
+                .category(randomCategory())
+                .between(start, start.plusMonths(1))
+                .sortBy(ExpenseQuery.Sort.AMOUNT_DESCENDING)
+                .limit(10)
+                .build());
+    }
+
+    @Benchmark
+    public int getAllExpenses() {
+        return repository.getAllExpenses().size();
+    }
+
+    @Benchmark
+    public List<Expense> getExpensesByCategory() {
+        return repository.getExpensesByCategory(randomCategory());
+    }
+
+    @Benchmark
+    public List<Expense> getExpensesByDate() {
+        return repository.getExpensesByDate(randomDate());
+    }
+
+    @Benchmark
+    public List<Expense> getExpensesByDateRangeMonth() {
+        LocalDate start = randomDate();
+        return repository.getExpensesByDateRange(start, start.plusMonths(1));
+    }
+
+    @Benchmark
+    public double getTotalExpensesByCalendarMonth() {
+        LocalDate start = randomDate().withDayOfMonth(1);
+        return repository.getTotalExpensesByDateRange(start, start.plusMonths(1).minusDays(1));
+    }
+
+    @Benchmark
+    public double getTotalExpensesByDateRangeYear() {
+        LocalDate start = randomDate();
+        return repository.getTotalExpensesByDateRange(start, start.plusYears(1));
+    }
+
+    @Benchmark
+    public Expense getExpenseById() throws ExpenseNotFoundException {
+        return repository.getExpenseById(expenses.get(random.nextInt(expenses.size())).getExpenseId());
+    }
+
+    @Benchmark
+    public double getTotalExpenses() {
+        return repository.getTotalExpenses();
+    }
+
+    @Benchmark
+    public double getTotalExpensesByCategory() {
+        return repository.getTotalExpensesByCategory(randomCategory());
+    }
+
+    @Benchmark
+    public ExpenseSummary getSummary() {
+        return repository.getSummary();
+    }
+
+    @Benchmark
+    public List<String> getAvailableCategories() {
+        return repository.getAvailableCategories();
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.benchmarks;
+
+import org.example.model.User;
+import org.example.service.UserStorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login and registration against a snapshot of {@code users} accounts. Registration appends
+ * (and fsyncs) a log record per call, so the registry grows during the run; the snapshot is
+ * rewritten for every trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class UserStorageBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int users;
+
+    private UserStorageService service;
+    private Random random;
+    private int registered;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkData.requireScratchDirectory();
+        BenchmarkData.writeUsers(users);
+        service = new UserStorageService();
+        service.userExists(BenchmarkData.username(0)); // load the registry outside the measurement
+        random = new Random(42);
+        registered = users;
+    }
+
+    @Benchmark
+    public User login() throws Exception {
+        return service.login(BenchmarkData.username(random.nextInt(users)), BenchmarkData.PASSWORD);
+    }
+
+    @Benchmark
+    public boolean coldLogin() throws Exception {
+        // A fresh service has to read the snapshot and logs first
+        return new UserStorageService().userExists(BenchmarkData.username(random.nextInt(users)));
+    }
+
+    @Benchmark
+    public void register() throws Exception {
+        int index = registered++;
+        service.register(new User("Bench User", BenchmarkData.username(index), BenchmarkData.PASSWORD,
+                "user_" + index, "TEMP_CSV_ID"));
+    }
+}
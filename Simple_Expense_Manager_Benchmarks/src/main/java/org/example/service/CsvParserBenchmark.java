@@ -0,0 +1,67 @@
+package org.example.service;
+
+import org.example.model.Expense;
+import org.example.model.ExpenseLedger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row parsing, which replaced {@code parseExpenseFromCsv}. Lives in the service package because
+ * {@link ExpenseCsvParser} is package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvParserBenchmark {
+    private static final String ROW = "EXP_1768801424062_581,bench_user,Food,223.45,2024-01-05";
+    private static final String LEGACY_ROW = "EXP_1768801424062_581,bench_user,Food,223.45,2024-01-05 10:15:00,lunch";
+
+    private ExpenseCsvParser parser;
+    private ByteBuffer block;
+    private int blockEnd;
+
+    @Setup
+    public void setUp() {
+        parser = new ExpenseCsvParser(new ExpenseLedger("bench_user"));
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            rows.append(ROW).append('\n');
+        }
+        byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+        block = ByteBuffer.wrap(bytes);
+        blockEnd = bytes.length;
+    }
+
+    @Benchmark
+    public Expense parseLine() throws Exception {
+        return parser.parseLine(ROW);
+    }
+
+    @Benchmark
+    public Expense parseLegacyLine() throws Exception {
+        return parser.parseLine(LEGACY_ROW);
+    }
+
+    // 1000 rows per call into a fresh ledger
+    @Benchmark
+    public ExpenseLedger parseBlock() {
+        ExpenseLedger ledger = new ExpenseLedger("bench_user");
+        new ExpenseCsvParser(ledger).parseLines(block, 0, blockEnd);
+        return ledger;
+    }
+}